@@ -1,6 +1,5 @@
 package client;
 
-import protocol.MessageParser;
 import protocol.Request;
 import protocol.Response;
 
@@ -8,22 +7,17 @@ import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
 
 public class AdminClientGUI extends JFrame {
     private JTextField hostField, portField, passwordField, winningNumField;
+    private JCheckBox binaryBox;
     private JButton connectBtn, setWinnerBtn, viewTicketsBtn, announceBtn;
     private JTextArea logArea;
     private JTable ticketTable;
     private DefaultTableModel tableModel;
 
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private ProtocolConnection connection;
     private Thread readerThread;
 
     public AdminClientGUI() {
@@ -39,6 +33,7 @@ public class AdminClientGUI extends JFrame {
         hostField = new JTextField("127.0.0.1", 12);
         portField = new JTextField("5000", 6);
         passwordField = new JTextField("admin123", 10);
+        binaryBox = new JCheckBox("Binary");
         connectBtn = new JButton("Connect");
 
         connectBtn.addActionListener(this::onConnect);
@@ -49,6 +44,7 @@ public class AdminClientGUI extends JFrame {
         top.add(portField);
         top.add(new JLabel("Password:"));
         top.add(passwordField);
+        top.add(binaryBox);
         top.add(connectBtn);
 
         JPanel middle = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -90,7 +86,7 @@ public class AdminClientGUI extends JFrame {
     }
 
     private void onConnect(ActionEvent e) {
-        if (socket != null && socket.isConnected()) {
+        if (connection != null && connection.isOpen()) {
             append("Already connected");
             return;
         }
@@ -101,9 +97,7 @@ public class AdminClientGUI extends JFrame {
 
         append("Connecting to " + host + ":" + port);
         try {
-            socket = new Socket(host, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            connection = new ProtocolConnection(host, port, binaryBox.isSelected());
 
             readerThread = new Thread(this::readLoop);
             readerThread.setDaemon(true);
@@ -112,8 +106,7 @@ public class AdminClientGUI extends JFrame {
             append("Connected, logging in as admin");
             Request request = new Request("adminLogin");
             request.setPassword(password);
-            String json = MessageParser.toJson(request);
-            send(json);
+            send(request);
 
             setWinnerBtn.setEnabled(true);
             viewTicketsBtn.setEnabled(true);
@@ -127,39 +120,40 @@ public class AdminClientGUI extends JFrame {
         int num = Integer.parseInt(winningNumField.getText().trim());
         Request request = new Request("setWinningNumber");
         request.setWinningNumber(num);
-        String json = MessageParser.toJson(request);
-        send(json);
+        send(request);
         append("Sent setWinningNumber: " + num);
     }
 
     private void onViewTickets(ActionEvent e) {
         Request request = new Request("viewTickets");
-        String json = MessageParser.toJson(request);
-        send(json);
+        send(request);
         append("Requested ticket list");
     }
 
     private void onAnnounce(ActionEvent e) {
         Request request = new Request("announceResults");
-        String json = MessageParser.toJson(request);
-        send(json);
+        send(request);
         append("Announced results");
     }
 
-    private void send(String line) {
-        if (out == null) {
+    private void send(Request request) {
+        if (connection == null) {
             append("Not connected");
             return;
         }
-        out.println(line);
+        try {
+            connection.send(request);
+        } catch (IOException ex) {
+            append("Send failed: " + ex.getMessage());
+        }
     }
 
     private void readLoop() {
         try {
-            String line;
-            while ((line = in.readLine()) != null) {
-                Response response = MessageParser.parseResponse(line);
-                SwingUtilities.invokeLater(() -> processResponse(response));
+            Response response;
+            while ((response = connection.receive()) != null) {
+                final Response received = response;
+                SwingUtilities.invokeLater(() -> processResponse(received));
             }
         } catch (IOException ex) {
             SwingUtilities.invokeLater(() -> append("Disconnected: " + ex.getMessage()));
@@ -176,11 +170,7 @@ public class AdminClientGUI extends JFrame {
 
     private void closeResources() {
         try {
-            if (in != null) in.close();
-        } catch (IOException ignored) {}
-        if (out != null) out.close();
-        try {
-            if (socket != null) socket.close();
+            if (connection != null) connection.close();
         } catch (IOException ignored) {}
         SwingUtilities.invokeLater(() -> append("Connection closed"));
     }
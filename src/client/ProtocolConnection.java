@@ -0,0 +1,87 @@
+package client;
+
+import protocol.BinaryCodec;
+import protocol.ByteSink;
+import protocol.MessageParser;
+import protocol.Request;
+import protocol.Response;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client side of the TCP protocol for the CLI and GUI clients. Speaks either
+ * newline-terminated JSON (the default) or the compact binary framing, which is
+ * selected with a handshake byte right after connecting.
+ */
+public class ProtocolConnection implements Closeable {
+    private final Socket socket;
+    private final boolean binary;
+    private final InputStream in;
+    private final OutputStream out;
+    private final BufferedReader reader;
+    private final ByteSink frame = new ByteSink();
+
+    public ProtocolConnection(String host, int port, boolean binary) throws IOException {
+        this.socket = new Socket(host, port);
+        this.binary = binary;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.reader = binary ? null : new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        if (binary) {
+            out.write(BinaryCodec.HANDSHAKE);
+            out.flush();
+            int ack = in.read();
+            if (ack != BinaryCodec.HANDSHAKE) {
+                socket.close();
+                throw new IOException("Server does not support the binary protocol");
+            }
+        }
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public synchronized void send(Request request) throws IOException {
+        if (binary) {
+            frame.reset();
+            BinaryCodec.encodeRequest(request, frame);
+            frame.writeTo(out);
+        } else {
+            out.write(MessageParser.toJson(request).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * Blocks for the next response; null once the server closes the connection.
+     */
+    public Response receive() throws IOException {
+        if (binary) {
+            byte[] payload = BinaryCodec.readFrame(in);
+            return payload != null ? BinaryCodec.decodeResponse(payload, 0, payload.length) : null;
+        }
+        String line = reader.readLine();
+        return line != null ? MessageParser.parseResponse(line) : null;
+    }
+
+    public boolean isOpen() {
+        return socket.isConnected() && !socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
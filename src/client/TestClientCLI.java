@@ -1,44 +1,49 @@
 package client;
 
-import java.io.BufferedReader;
+import protocol.MessageParser;
+import protocol.Request;
+import protocol.Response;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
 
 /**
  * TestClientCLI
  * - Simple command-line client that exercises the Member 2 actions:
  *   login, buyTicket, checkResult
  * - Useful when GUI cannot be displayed; prints server responses to console.
+ * - Usage: TestClientCLI [username] [port] [--binary]
+ *   --binary switches to the compact binary protocol (LotteryServer only).
  */
 public class TestClientCLI {
     public static void main(String[] args) {
         String host = "127.0.0.1";
         int port = 5555;
         String username = "alice";
-        if (args.length > 0) username = args[0];
-
-        try (Socket s = new Socket(host, port);
-             PrintWriter out = new PrintWriter(s.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
-
-            System.out.println("Connected to server " + host + ":" + port);
+        boolean binary = false;
+
+        int positional = 0;
+        for (String arg : args) {
+            if ("--binary".equals(arg)) {
+                binary = true;
+            } else if (positional++ == 0) {
+                username = arg;
+            } else {
+                try { port = Integer.parseInt(arg); } catch (NumberFormatException ignored) {}
+            }
+        }
 
-            String login = String.format("{\"action\":\"login\",\"username\":\"%s\",\"initialBalance\":100.0}", username);
-            System.out.println("-> " + login);
-            out.println(login);
-            System.out.println("<- " + in.readLine());
+        try (ProtocolConnection connection = new ProtocolConnection(host, port, binary)) {
 
-            String buy = String.format("{\"action\":\"buyTicket\",\"username\":\"%s\"}", username);
-            System.out.println("-> " + buy);
-            out.println(buy);
-            System.out.println("<- " + in.readLine());
+            System.out.println("Connected to server " + host + ":" + port + (binary ? " (binary)" : ""));
 
-            String check = String.format("{\"action\":\"checkResult\",\"username\":\"%s\"}", username);
-            System.out.println("-> " + check);
-            out.println(check);
-            System.out.println("<- " + in.readLine());
+            for (String action : new String[]{"login", "buyTicket", "checkResult"}) {
+                Request request = new Request(action);
+                request.setUsername(username);
+                System.out.println("-> " + MessageParser.toJson(request));
+                connection.send(request);
+                Response response = connection.receive();
+                System.out.println("<- " + (response != null ? MessageParser.toJson(response) : "(closed)"));
+            }
 
             System.out.println("Done.");
 
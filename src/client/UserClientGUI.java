@@ -1,17 +1,12 @@
 package client;
 
-import protocol.MessageParser;
 import protocol.Request;
 import protocol.Response;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
 
 /**
  * UserClientGUI
@@ -28,15 +23,14 @@ public class UserClientGUI extends JFrame {
   private JTextField hostField;
   private JTextField portField;
   private JTextField usernameField;
+  private JCheckBox binaryBox;
   private JButton connectBtn;
   private JButton loginBtn;
   private JButton buyTicketBtn;
   private JButton checkResultBtn;
   private JTextArea eventArea;
 
-  private Socket socket;
-  private PrintWriter out;
-  private BufferedReader in;
+  private ProtocolConnection connection;
   private Thread readerThread;
 
   public UserClientGUI() {
@@ -52,6 +46,7 @@ public class UserClientGUI extends JFrame {
     hostField = new JTextField("127.0.0.1", 12);
     portField = new JTextField("5555", 6);
     usernameField = new JTextField("alice", 10);
+    binaryBox = new JCheckBox("Binary");
     connectBtn = new JButton("Connect");
     connectBtn.addActionListener(this::onConnect);
 
@@ -61,6 +56,7 @@ public class UserClientGUI extends JFrame {
     top.add(portField);
     top.add(new JLabel("Username:"));
     top.add(usernameField);
+    top.add(binaryBox);
     top.add(connectBtn);
 
     JPanel middle = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -91,7 +87,7 @@ public class UserClientGUI extends JFrame {
   }
 
   private void onConnect(ActionEvent e) {
-    if (socket != null && socket.isConnected() && !socket.isClosed()) {
+    if (connection != null && connection.isOpen()) {
       append("Already connected");
       return;
     }
@@ -101,16 +97,14 @@ public class UserClientGUI extends JFrame {
 
     append("Connecting to " + host + ":" + port + " ...");
     try {
-      socket = new Socket(host, port);
-      out = new PrintWriter(socket.getOutputStream(), true);
-      in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      connection = new ProtocolConnection(host, port, binaryBox.isSelected());
 
       // Start reader thread
       readerThread = new Thread(this::readLoop);
       readerThread.setDaemon(true);
       readerThread.start();
 
-      append("Connected to server");
+      append("Connected to server" + (connection.isBinary() ? " (binary protocol)" : ""));
       loginBtn.setEnabled(true);
       buyTicketBtn.setEnabled(true);
       checkResultBtn.setEnabled(true);
@@ -128,8 +122,7 @@ public class UserClientGUI extends JFrame {
 
     Request request = new Request("login");
     request.setUsername(username);
-    String json = MessageParser.toJson(request);
-    send(json);
+    send(request);
     append("Sent login request for '" + username + "'");
   }
 
@@ -142,8 +135,7 @@ public class UserClientGUI extends JFrame {
 
     Request request = new Request("buyTicket");
     request.setUsername(username);
-    String json = MessageParser.toJson(request);
-    send(json);
+    send(request);
     append("Sent buyTicket request for '" + username + "'");
   }
 
@@ -156,24 +148,26 @@ public class UserClientGUI extends JFrame {
 
     Request request = new Request("checkResult");
     request.setUsername(username);
-    String json = MessageParser.toJson(request);
-    send(json);
+    send(request);
     append("Sent checkResult request for '" + username + "'");
   }
 
-  private void send(String line) {
-    if (out == null) {
+  private void send(Request request) {
+    if (connection == null) {
       append("Not connected to server");
       return;
     }
-    out.println(line);
+    try {
+      connection.send(request);
+    } catch (IOException ex) {
+      append("Send failed: " + ex.getMessage());
+    }
   }
 
   private void readLoop() {
     try {
-      String line;
-      while ((line = in.readLine()) != null) {
-        Response response = MessageParser.parseResponse(line);
+      Response response;
+      while ((response = connection.receive()) != null) {
         final String msg = formatResponse(response);
         SwingUtilities.invokeLater(() -> append("<Server> " + msg));
       }
@@ -202,12 +196,7 @@ public class UserClientGUI extends JFrame {
 
   private void closeResources() {
     try {
-      if (in != null) in.close();
-    } catch (IOException ignored) {
-    }
-    if (out != null) out.close();
-    try {
-      if (socket != null) socket.close();
+      if (connection != null) connection.close();
     } catch (IOException ignored) {
     }
     SwingUtilities.invokeLater(() -> append("Connection closed"));
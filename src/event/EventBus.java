@@ -0,0 +1,169 @@
+package event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process asynchronous event bus. publish() only enqueues, so the request
+ * thread that committed a change never waits on WebSocket fan-out, log I/O or
+ * anything else a subscriber does.
+ *
+ * Every subscriber gets its own bounded queue and thread and sees events in
+ * publish order, drained in batches of up to MAX_BATCH. A slow subscriber
+ * only backs up its own queue; once that is full its events are dropped and
+ * counted rather than stalling publishers.
+ *
+ * Usage: subscribe() everything, then publish(); close() delivers what is
+ * still queued and stops the threads.
+ */
+public class EventBus {
+    public static final String QUEUE_CAPACITY_PROPERTY = "lottery.events.queueCapacity";
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+    private static final int MAX_BATCH = 256;
+
+    // Queued behind everything else by close() to stop a subscriber thread
+    private static final LotteryEvent STOP = () -> 0L;
+
+    private final int queueCapacity;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    public EventBus(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    public static EventBus fromSystemProperties() {
+        return new EventBus(Integer.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY));
+    }
+
+    public void subscribe(String name, EventSubscriber subscriber) {
+        if (closed) throw new IllegalStateException("Event bus is closed");
+        Subscription subscription = new Subscription(name, subscriber, queueCapacity);
+        subscriptions.add(subscription);
+        subscription.thread.start();
+    }
+
+    /**
+     * Hand an event to every subscriber; never blocks.
+     */
+    public void publish(LotteryEvent event) {
+        if (closed) return;
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (Subscription subscription : subscriptions) {
+            dropped += subscription.dropped.get();
+        }
+        return dropped;
+    }
+
+    /**
+     * Events queued across all subscribers and not yet delivered.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Subscription subscription : subscriptions) {
+            depth += subscription.queue.size();
+        }
+        return depth;
+    }
+
+    public String getStats() {
+        StringBuilder stats = new StringBuilder("Event bus:");
+        for (Subscription subscription : subscriptions) {
+            stats.append(String.format(" %s %d delivered/%d batches/%d dropped/%d queued;",
+                    subscription.name, subscription.delivered.get(), subscription.batches.get(),
+                    subscription.dropped.get(), subscription.queue.size()));
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Stop accepting events, let every subscriber finish its queue, then stop.
+     */
+    public void close() {
+        closed = true;
+        for (Subscription subscription : subscriptions) {
+            subscription.stop();
+        }
+        for (Subscription subscription : subscriptions) {
+            try {
+                subscription.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final class Subscription {
+        final String name;
+        final EventSubscriber subscriber;
+        final BlockingQueue<LotteryEvent> queue;
+        final Thread thread;
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong batches = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+
+        Subscription(String name, EventSubscriber subscriber, int capacity) {
+            this.name = name;
+            this.subscriber = subscriber;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this::deliverLoop, "event-" + name);
+            thread.setDaemon(true);
+        }
+
+        void offer(LotteryEvent event) {
+            if (!queue.offer(event)) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        void stop() {
+            try {
+                queue.put(STOP);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                thread.interrupt();
+            }
+        }
+
+        private void deliverLoop() {
+            List<LotteryEvent> batch = new ArrayList<>(MAX_BATCH);
+            List<LotteryEvent> view = Collections.unmodifiableList(batch);
+            boolean stopping = false;
+            while (!stopping) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                int stop = batch.indexOf(STOP);
+                if (stop >= 0) {
+                    batch.subList(stop, batch.size()).clear();
+                    stopping = true;
+                }
+                if (!batch.isEmpty()) {
+                    try {
+                        subscriber.onEvents(view);
+                    } catch (RuntimeException e) {
+                        System.err.println("Event subscriber " + name + " failed: " + e.getMessage());
+                    }
+                    delivered.addAndGet(batch.size());
+                    batches.incrementAndGet();
+                }
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package event;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscriber keeping running totals of what the bus has carried, plus how far
+ * behind publishing the delivery of the latest batch was.
+ */
+public class EventMetrics implements EventSubscriber {
+    private final AtomicLong purchases = new AtomicLong();
+    private final AtomicLong ticketsSold = new AtomicLong();
+    private final AtomicLong draws = new AtomicLong();
+    private final AtomicLong prizesCredited = new AtomicLong();
+    private final AtomicLong prizeCents = new AtomicLong();
+    private volatile long lastDeliveryLagMillis;
+
+    @Override
+    public void onEvents(List<LotteryEvent> batch) {
+        for (LotteryEvent event : batch) {
+            if (event instanceof TicketPurchased) {
+                purchases.incrementAndGet();
+                ticketsSold.addAndGet(((TicketPurchased) event).getCount());
+            } else if (event instanceof WinningNumberSet) {
+                draws.incrementAndGet();
+            } else if (event instanceof PrizeCredited) {
+                prizesCredited.incrementAndGet();
+                prizeCents.addAndGet(Math.round(((PrizeCredited) event).getPrize() * 100));
+            }
+        }
+        lastDeliveryLagMillis = System.currentTimeMillis() - batch.get(0).getTimestamp();
+    }
+
+    public long getPurchases() { return purchases.get(); }
+    public long getTicketsSold() { return ticketsSold.get(); }
+    public long getDraws() { return draws.get(); }
+    public long getPrizesCredited() { return prizesCredited.get(); }
+    public double getPrizesPaid() { return prizeCents.get() / 100.0; }
+    public long getLastDeliveryLagMillis() { return lastDeliveryLagMillis; }
+
+    @Override
+    public String toString() {
+        return String.format("Events: %d purchases (%d tickets), %d draws, %d prizes ($%.2f), last lag %d ms",
+                getPurchases(), getTicketsSold(), getDraws(), getPrizesCredited(), getPrizesPaid(),
+                getLastDeliveryLagMillis());
+    }
+}
@@ -0,0 +1,12 @@
+package event;
+
+import java.util.List;
+
+/**
+ * Receives events in publish order, a batch at a time, on the subscriber's
+ * own EventBus thread.
+ */
+@FunctionalInterface
+public interface EventSubscriber {
+    void onEvents(List<LotteryEvent> batch);
+}
@@ -0,0 +1,9 @@
+package event;
+
+/**
+ * A domain event published by DataManager after a state change is committed.
+ */
+public interface LotteryEvent {
+    /** Wall-clock time the change happened, in epoch millis. */
+    long getTimestamp();
+}
@@ -0,0 +1,26 @@
+package event;
+
+/**
+ * A winning ticket's prize was credited to its owner's balance.
+ */
+public final class PrizeCredited implements LotteryEvent {
+    private final String username;
+    private final int ticketId;
+    private final int winningNumber;
+    private final double prize;
+    private final long timestamp;
+
+    public PrizeCredited(String username, int ticketId, int winningNumber, double prize, long timestamp) {
+        this.username = username;
+        this.ticketId = ticketId;
+        this.winningNumber = winningNumber;
+        this.prize = prize;
+        this.timestamp = timestamp;
+    }
+
+    public String getUsername() { return username; }
+    public int getTicketId() { return ticketId; }
+    public int getWinningNumber() { return winningNumber; }
+    public double getPrize() { return prize; }
+    @Override public long getTimestamp() { return timestamp; }
+}
@@ -0,0 +1,34 @@
+package event;
+
+/**
+ * One purchase of count tickets with contiguous ids firstTicketId..lastTicketId.
+ * totalTickets and jackpot are the values right after the purchase.
+ */
+public final class TicketPurchased implements LotteryEvent {
+    private final String username;
+    private final int count;
+    private final int firstTicketId;
+    private final int lastTicketId;
+    private final int totalTickets;
+    private final double jackpot;
+    private final long timestamp;
+
+    public TicketPurchased(String username, int count, int firstTicketId, int lastTicketId,
+                           int totalTickets, double jackpot, long timestamp) {
+        this.username = username;
+        this.count = count;
+        this.firstTicketId = firstTicketId;
+        this.lastTicketId = lastTicketId;
+        this.totalTickets = totalTickets;
+        this.jackpot = jackpot;
+        this.timestamp = timestamp;
+    }
+
+    public String getUsername() { return username; }
+    public int getCount() { return count; }
+    public int getFirstTicketId() { return firstTicketId; }
+    public int getLastTicketId() { return lastTicketId; }
+    public int getTotalTickets() { return totalTickets; }
+    public double getJackpot() { return jackpot; }
+    @Override public long getTimestamp() { return timestamp; }
+}
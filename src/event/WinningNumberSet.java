@@ -0,0 +1,21 @@
+package event;
+
+/**
+ * A draw was settled; winnerCount tickets matched the number. Published
+ * before the draw's PrizeCredited events.
+ */
+public final class WinningNumberSet implements LotteryEvent {
+    private final int number;
+    private final int winnerCount;
+    private final long timestamp;
+
+    public WinningNumberSet(int number, int winnerCount, long timestamp) {
+        this.number = number;
+        this.winnerCount = winnerCount;
+        this.timestamp = timestamp;
+    }
+
+    public int getNumber() { return number; }
+    public int getWinnerCount() { return winnerCount; }
+    @Override public long getTimestamp() { return timestamp; }
+}
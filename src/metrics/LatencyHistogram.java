@@ -0,0 +1,64 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with fixed buckets from 50 us to 10 s.
+ *
+ * record() is a short bucket scan plus two LongAdder increments, so request
+ * threads never contend on a lock or a single hot counter. Buckets are kept
+ * non-cumulative and summed up when a scrape reads them.
+ */
+public final class LatencyHistogram {
+    // Upper bounds in seconds, as published in the "le" label
+    static final String[] BOUND_LABELS = {
+        "0.00005", "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01",
+        "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+    };
+    private static final long[] BOUNDS_NANOS = new long[BOUND_LABELS.length];
+
+    static {
+        for (int i = 0; i < BOUND_LABELS.length; i++) {
+            BOUNDS_NANOS[i] = Math.round(Double.parseDouble(BOUND_LABELS[i]) * 1e9);
+        }
+    }
+
+    // One per bound plus the +Inf overflow bucket
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) bucket++;
+        buckets[bucket].increment();
+        sumNanos.add(Math.max(0, nanos));
+    }
+
+    /** Record the time elapsed since startNanos (a System.nanoTime() value). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Cumulative counts per bound, the last entry (+Inf) being the total count.
+     */
+    long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+}
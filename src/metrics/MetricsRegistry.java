@@ -0,0 +1,141 @@
+package metrics;
+
+import protocol.ByteSink;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Named metrics rendered in the Prometheus text exposition format.
+ *
+ * Histograms are looked up once and then recorded into directly, so the
+ * registry is never touched on a request path. Gauges and counters are
+ * suppliers read at scrape time, so they cost nothing in between. Series are
+ * identified by name plus label pairs; registering one again returns the
+ * existing histogram or replaces the supplier.
+ */
+public final class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    // Guarded by this; families and series render in registration order
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    private enum Type { GAUGE, COUNTER, HISTOGRAM }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Histogram for name with the given label pairs ("action", "buyTicket", ...).
+     */
+    public synchronized LatencyHistogram histogram(String name, String help, String... labels) {
+        Family family = family(name, help, Type.HISTOGRAM);
+        return (LatencyHistogram) family.series.computeIfAbsent(renderLabels(labels), key -> new LatencyHistogram());
+    }
+
+    public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).series.put(renderLabels(labels), value);
+    }
+
+    /** A monotonically increasing total kept elsewhere, read at scrape time. */
+    public synchronized void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Type.COUNTER).series.put(renderLabels(labels), value);
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Render every metric in the Prometheus text format (version 0.0.4).
+     */
+    public void writeTo(ByteSink out) {
+        List<Family> snapshot;
+        List<List<Map.Entry<String, Object>>> series = new ArrayList<>();
+        synchronized (this) {
+            snapshot = new ArrayList<>(families.values());
+            for (Family family : snapshot) {
+                series.add(new ArrayList<>(family.series.entrySet()));
+            }
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            Family family = snapshot.get(i);
+            out.writeAscii("# HELP ").writeAscii(family.name).writeByte(' ').writeAscii(family.help).writeByte('\n');
+            out.writeAscii("# TYPE ").writeAscii(family.name).writeByte(' ')
+               .writeAscii(family.type.name().toLowerCase(Locale.ROOT)).writeByte('\n');
+            for (Map.Entry<String, Object> entry : series.get(i)) {
+                if (family.type == Type.HISTOGRAM) {
+                    writeHistogram(out, family.name, entry.getKey(), (LatencyHistogram) entry.getValue());
+                } else {
+                    long value;
+                    try {
+                        value = ((LongSupplier) entry.getValue()).getAsLong();
+                    } catch (RuntimeException e) {
+                        continue; // source not available right now; leave the sample out
+                    }
+                    out.writeAscii(family.name).writeAscii(entry.getKey()).writeByte(' ').writeLong(value).writeByte('\n');
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(ByteSink out, String name, String labels, LatencyHistogram histogram) {
+        long[] counts = histogram.cumulativeCounts();
+        // Bucket labels go after the series' own labels: {action="x",le="0.1"}
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        for (int i = 0; i < counts.length; i++) {
+            String bound = i < LatencyHistogram.BOUND_LABELS.length ? LatencyHistogram.BOUND_LABELS[i] : "+Inf";
+            out.writeAscii(name).writeAscii("_bucket").writeAscii(prefix).writeAscii("le=\"").writeAscii(bound)
+               .writeAscii("\"} ").writeLong(counts[i]).writeByte('\n');
+        }
+        out.writeAscii(name).writeAscii("_sum").writeAscii(labels).writeByte(' ')
+           .writeAscii(Double.toString(histogram.getSumSeconds())).writeByte('\n');
+        out.writeAscii(name).writeAscii("_count").writeAscii(labels).writeByte(' ')
+           .writeLong(counts[counts.length - 1]).writeByte('\n');
+    }
+
+    private static String renderLabels(String... labels) {
+        if (labels.length == 0) return "";
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name/value pairs");
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1] != null ? labels[i + 1] : "";
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.append('}').toString();
+    }
+}
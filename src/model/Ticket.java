@@ -13,6 +13,13 @@ public class Ticket {
         this.purchaseTime = System.currentTimeMillis();
     }
 
+    public Ticket(int ticketId, String username, int[] numbers, long purchaseTime) {
+        this.ticketId = ticketId;
+        this.username = username;
+        this.numbers = numbers.clone(); // Defensive copy
+        this.purchaseTime = purchaseTime;
+    }
+
     // Legacy constructor for backward compatibility
     public Ticket(int ticketId, String username, int ticketNumber) {
         this.ticketId = ticketId;
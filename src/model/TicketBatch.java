@@ -0,0 +1,20 @@
+package model;
+
+/**
+ * Result of a bulk purchase: a contiguous range of ticket ids starting at
+ * firstTicketId, with one number set per ticket.
+ */
+public class TicketBatch {
+    private int firstTicketId;
+    private int[][] numbers;
+
+    public TicketBatch(int firstTicketId, int[][] numbers) {
+        this.firstTicketId = firstTicketId;
+        this.numbers = numbers;
+    }
+
+    public int getFirstTicketId() { return firstTicketId; }
+    public int getLastTicketId() { return firstTicketId + numbers.length - 1; }
+    public int getCount() { return numbers.length; }
+    public int[][] getNumbers() { return numbers; }
+}
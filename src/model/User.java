@@ -1,22 +1,95 @@
 package model;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class User {
+    private final int id;
     private String username;
-    private double balance;
-    private List<Integer> ticketIds;
+    // Balance in minor units (cents); debits are CAS-based so concurrent buys can't oversell
+    private final AtomicLong balanceCents;
+    private int[] ticketIds;
+    private int ticketCount;
 
     public User(String username, double balance) {
+        this(-1, username, balance);
+    }
+
+    public User(int id, String username, double balance) {
+        this.id = id;
         this.username = username;
-        this.balance = balance;
-        this.ticketIds = new ArrayList<>();
+        this.balanceCents = new AtomicLong(toCents(balance));
+        this.ticketIds = new int[4];
     }
 
+    public int getId() { return id; }
     public String getUsername() { return username; }
-    public double getBalance() { return balance; }
-    public void setBalance(double balance) { this.balance = balance; }
-    public List<Integer> getTicketIds() { return ticketIds; }
-    public void addTicketId(int id) { ticketIds.add(id); }
+    public double getBalance() { return balanceCents.get() / 100.0; }
+    public void setBalance(double balance) { balanceCents.set(toCents(balance)); }
+    public long getBalanceCents() { return balanceCents.get(); }
+
+    /**
+     * Atomically take amountCents from the balance; false (and no change) if it would go negative.
+     */
+    public boolean tryDebit(long amountCents) {
+        while (true) {
+            long current = balanceCents.get();
+            if (current < amountCents) return false;
+            if (balanceCents.compareAndSet(current, current - amountCents)) return true;
+        }
+    }
+
+    public void credit(long amountCents) {
+        balanceCents.addAndGet(amountCents);
+    }
+
+    /**
+     * Snapshot of this user's ticket ids in purchase order.
+     */
+    public List<Integer> getTicketIds() {
+        final int[] snapshot = getTicketIdArray();
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) { return snapshot[index]; }
+            @Override
+            public int size() { return snapshot.length; }
+        };
+    }
+
+    public synchronized int[] getTicketIdArray() {
+        return Arrays.copyOf(ticketIds, ticketCount);
+    }
+
+    public synchronized int getTicketCount() { return ticketCount; }
+
+    public synchronized int getLastTicketId() {
+        return ticketCount > 0 ? ticketIds[ticketCount - 1] : -1;
+    }
+
+    public synchronized void addTicketId(int id) {
+        ensureCapacity(1);
+        ticketIds[ticketCount++] = id;
+    }
+
+    /**
+     * Append a contiguous id range from a bulk purchase.
+     */
+    public synchronized void addTicketIds(int firstId, int count) {
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            ticketIds[ticketCount++] = firstId + i;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (ticketCount + extra > ticketIds.length) {
+            ticketIds = Arrays.copyOf(ticketIds, Math.max(ticketIds.length * 2, ticketCount + extra));
+        }
+    }
+
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
 }
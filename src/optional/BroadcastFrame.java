@@ -0,0 +1,125 @@
+package optional;
+
+import protocol.ByteSink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A WebSocket event serialized once and shared by every recipient.
+ *
+ * The JSON is written straight into UTF-8 bytes ({"type":..,"data":{..}});
+ * binary-mode sessions are sent those exact bytes (a read-only duplicate per
+ * send, no copy). The String for text-mode sessions is only decoded once one
+ * of them needs it, and then shared.
+ */
+final class BroadcastFrame {
+    private final String type;
+    private final byte[] utf8;
+    private final ByteBuffer bytes;
+    // Decoded on first use; a racing second decode is harmless
+    private volatile String text;
+
+    private BroadcastFrame(String type, byte[] utf8) {
+        this.type = type;
+        this.utf8 = utf8;
+        this.bytes = ByteBuffer.wrap(utf8).asReadOnlyBuffer();
+    }
+
+    static Builder event(String type) {
+        return new Builder(type);
+    }
+
+    String getType() { return type; }
+    int size() { return bytes.capacity(); }
+
+    String text() {
+        String decoded = text;
+        if (decoded == null) {
+            decoded = new String(utf8, StandardCharsets.UTF_8);
+            text = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Append the encoded JSON to out, e.g. to wrap it in another framing.
+     */
+    void writeTo(ByteSink out) {
+        out.writeBytes(utf8);
+    }
+
+    /**
+     * Independent view of the encoded bytes, safe to hand to one send.
+     */
+    ByteBuffer payload() {
+        return bytes.duplicate();
+    }
+
+    static final class Builder {
+        private final String type;
+        private final ByteSink sink = new ByteSink(128);
+        private boolean firstField = true;
+
+        private Builder(String type) {
+            this.type = type;
+            sink.writeAscii("{\"type\":").writeJsonString(type).writeAscii(",\"data\":{");
+        }
+
+        private ByteSink name(String name) {
+            if (!firstField) sink.writeByte(',');
+            firstField = false;
+            return sink.writeJsonString(name).writeByte(':');
+        }
+
+        Builder field(String name, long value) {
+            name(name).writeLong(value);
+            return this;
+        }
+
+        Builder field(String name, double value) {
+            name(name).writeDouble(value);
+            return this;
+        }
+
+        Builder field(String name, boolean value) {
+            name(name).writeAscii(value ? "true" : "false");
+            return this;
+        }
+
+        Builder field(String name, String value) {
+            name(name).writeJsonString(value != null ? value : "");
+            return this;
+        }
+
+        Builder field(String name, int[] values) {
+            name(name).writeByte('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) sink.writeByte(',');
+                sink.writeInt(values[i]);
+            }
+            sink.writeByte(']');
+            return this;
+        }
+
+        Builder field(String name, List<String> values) {
+            name(name).writeByte('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) sink.writeByte(',');
+                sink.writeJsonString(values.get(i));
+            }
+            sink.writeByte(']');
+            return this;
+        }
+
+        Builder timestamp() {
+            return field("timestamp", System.currentTimeMillis());
+        }
+
+        BroadcastFrame build() {
+            sink.writeAscii("}}");
+            return new BroadcastFrame(type, sink.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package optional;
+
+import event.EventSubscriber;
+import event.LotteryEvent;
+import event.PrizeCredited;
+import event.TicketPurchased;
+import event.WinningNumberSet;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Event bus subscriber writing an audit line per domain event through the
+ * asynchronous FileLogger.
+ */
+public class EventLogWriter implements EventSubscriber {
+    public static final String FILE_PROPERTY = "lottery.events.log";
+    public static final String DEFAULT_FILE = "lottery-events.log";
+
+    private final FileLogger logger;
+
+    public EventLogWriter(String filename) throws IOException {
+        this.logger = new FileLogger(filename);
+    }
+
+    @Override
+    public void onEvents(List<LotteryEvent> batch) {
+        for (LotteryEvent event : batch) {
+            logger.log(describe(event));
+        }
+    }
+
+    private static String describe(LotteryEvent event) {
+        if (event instanceof TicketPurchased) {
+            TicketPurchased purchase = (TicketPurchased) event;
+            return purchase.getCount() == 1
+                ? "PURCHASE " + purchase.getUsername() + " ticket #" + purchase.getFirstTicketId()
+                : "PURCHASE " + purchase.getUsername() + " " + purchase.getCount() + " tickets #"
+                    + purchase.getFirstTicketId() + "-#" + purchase.getLastTicketId();
+        } else if (event instanceof WinningNumberSet) {
+            WinningNumberSet draw = (WinningNumberSet) event;
+            return "DRAW winning number " + draw.getNumber() + ", " + draw.getWinnerCount() + " winning tickets";
+        } else if (event instanceof PrizeCredited) {
+            PrizeCredited prize = (PrizeCredited) event;
+            return String.format("PRIZE %s ticket #%d $%.2f", prize.getUsername(), prize.getTicketId(), prize.getPrize());
+        }
+        return event.toString();
+    }
+
+    public long getDroppedCount() {
+        return logger.getDroppedCount();
+    }
+
+    public void close() {
+        logger.close();
+    }
+}
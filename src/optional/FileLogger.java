@@ -1,27 +1,240 @@
 package optional;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Asynchronous file logger. log() only records the event and its time in a
+ * bounded lock-free ring; one background thread formats the lines and writes
+ * them in batches through a FileChannel, so callers never wait on the disk.
+ *
+ * When the ring is full the overflow policy decides: DROP the event, BLOCK
+ * the caller until there is room, or SAMPLE (once the ring is half full keep
+ * only every sampleRate-th event, drop the rest).
+ */
 public class FileLogger {
-    private PrintWriter writer;
+    public enum OverflowPolicy { DROP, BLOCK, SAMPLE }
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    private final FileChannel channel;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+
+    // Bounded MPSC ring (per-slot sequence numbers, Vyukov style)
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final String[] events;
+    private final long[] times;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // written by the writer thread only
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private final Thread writerThread;
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+
+    // Writer-thread scratch: cached second-resolution timestamp and output buffers
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedTimestamp;
+    private final StringBuilder lines = new StringBuilder(BATCH_SIZE * 64);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+
     public FileLogger(String filename) throws IOException {
-        writer = new PrintWriter(new FileWriter(filename, true));
+        this(filename, DEFAULT_CAPACITY, OverflowPolicy.DROP, DEFAULT_SAMPLE_RATE);
     }
 
+    public FileLogger(String filename, int capacity, OverflowPolicy policy) throws IOException {
+        this(filename, capacity, policy, DEFAULT_SAMPLE_RATE);
+    }
+
+    public FileLogger(String filename, int capacity, OverflowPolicy policy, int sampleRate) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.policy = policy;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.events = new String[this.capacity];
+        this.times = new long[this.capacity];
+
+        writerThread = new Thread(this::writeLoop, "file-logger");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queue an event; never touches the disk on the caller's thread.
+     */
     public void log(String event) {
-        String timestamp = LocalDateTime.now().format(formatter);
-        writer.println("[" + timestamp + "] " + event);
-        writer.flush();
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (policy == OverflowPolicy.SAMPLE && tail.get() - head >= capacity / 2
+                && sampleCounter.incrementAndGet() % sampleRate != 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+        while (!offer(event, now)) {
+            if (policy != OverflowPolicy.BLOCK || closed) {
+                dropped.incrementAndGet();
+                if (writerParked) wakeWriter();
+                return;
+            }
+            wakeWriter();
+            Thread.yield();
+        }
+        if (writerParked) wakeWriter();
+    }
+
+    private boolean offer(String event, long time) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events[index] = event;
+                    times[index] = time;
+                    sequences.lazySet(index, position + 1); // publish to the writer
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // full
+            }
+        }
     }
 
+    private void wakeWriter() {
+        LockSupport.unpark(writerThread);
+    }
+
+    private void writeLoop() {
+        while (true) {
+            int drained = drainBatch();
+            if (drained > 0) continue;
+            if (closed && tail.get() == head) break;
+            writerParked = true;
+            if (tail.get() == head && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("FileLogger close failed: " + e.getMessage());
+        }
+    }
+
+    private int drainBatch() {
+        int count = 0;
+        lines.setLength(0);
+        while (count < BATCH_SIZE) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) break;
+            String event = events[index];
+            long time = times[index];
+            events[index] = null;
+            sequences.lazySet(index, head + capacity); // hand the slot back to producers
+            head++;
+            lines.append('[').append(timestamp(time)).append("] ").append(event).append('\n');
+            count++;
+        }
+        if (count > 0) {
+            write(lines);
+            written.addAndGet(count);
+        }
+        return count;
+    }
+
+    private String timestamp(long millis) {
+        long second = millis / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).format(formatter);
+        }
+        return cachedTimestamp;
+    }
+
+    private void write(CharSequence text) {
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        try {
+            while (true) {
+                CoderResult result = encoder.encode(chars, out, true);
+                if (result.isOverflow()) {
+                    flushBuffer();
+                    continue;
+                }
+                encoder.flush(out);
+                break;
+            }
+            flushBuffer();
+        } catch (IOException e) {
+            System.err.println("FileLogger write failed: " + e.getMessage());
+            out.clear();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    public long getDroppedCount() { return dropped.get(); }
+    public long getWrittenCount() { return written.get(); }
+    public int getQueueDepth() { return (int) (tail.get() - head); }
+    public OverflowPolicy getPolicy() { return policy; }
+
+    /**
+     * Stop accepting events, write out everything queued and close the file.
+     */
     public void close() {
-        if (writer != null) writer.close();
+        closed = true;
+        wakeWriter();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     // Example usage
@@ -0,0 +1,56 @@
+package optional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * One HTTP request and its response, as seen by an HttpRoute. Exactly one of
+ * send, sendEmpty or stream answers the request.
+ */
+interface HttpCall {
+    String getMethod();
+
+    String getPath();
+
+    /** Raw query string without the '?', or null if there is none. */
+    String getQuery();
+
+    /** Request header value (name is case-insensitive), or null. */
+    String getRequestHeader(String name);
+
+    /** The whole request body; empty if there is none. */
+    byte[] getBody() throws IOException;
+
+    void setHeader(String name, String value);
+
+    /**
+     * Send a complete response. The buffer's remaining bytes are shared, not
+     * copied: engines may still be writing them after send returns, so they
+     * must never be modified.
+     */
+    void send(int status, ByteBuffer body) throws IOException;
+
+    default void send(int status, byte[] body) throws IOException {
+        send(status, ByteBuffer.wrap(body));
+    }
+
+    /** Send a response with no body. */
+    void sendEmpty(int status) throws IOException;
+
+    /**
+     * Start a response of unknown length (chunked where the client supports
+     * it). Closing the stream completes the response; flush() pushes what has
+     * been written so far to the client.
+     */
+    OutputStream stream(int status) throws IOException;
+
+    /**
+     * Start a response of unknown length that outlives the route, or return
+     * null if the engine cannot do that (use stream() instead). The response
+     * stays open after the route returns, until the push is closed.
+     */
+    default HttpPush push(int status) throws IOException {
+        return null;
+    }
+}
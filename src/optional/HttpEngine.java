@@ -0,0 +1,35 @@
+package optional;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Transport under HttpServerModule. Routes are matched on the exact request
+ * path and run on the given executor.
+ *
+ * Selected with -Dlottery.http.engine=nio|jdk (default nio).
+ */
+interface HttpEngine {
+    String ENGINE_PROPERTY = "lottery.http.engine";
+
+    void start(int port, Map<String, HttpRoute> routes, ExecutorService executor) throws IOException;
+
+    void stop();
+
+    /** Client connections currently open, or -1 if the engine does not track them. */
+    int getOpenConnections();
+
+    static HttpEngine fromSystemProperties() {
+        String value = System.getProperty(ENGINE_PROPERTY, "nio").trim().toLowerCase();
+        switch (value) {
+            case "jdk":
+                return new JdkHttpEngine();
+            case "nio":
+                return new NioHttpEngine();
+            default:
+                System.err.println("Unknown HTTP engine '" + value + "', using nio");
+                return new NioHttpEngine();
+        }
+    }
+}
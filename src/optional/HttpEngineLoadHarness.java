@@ -0,0 +1,241 @@
+package optional;
+
+import server.DataManager;
+import server.ExecutionMode;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Same keep-alive client mix against both HTTP engines
+ * (-Dlottery.http.engine=jdk and =nio), one HttpServerModule at a time in
+ * this JVM over a memory-only DataManager.
+ *
+ * Each connection is a thread with one persistent socket, sending a fixed
+ * cycle of ten requests: 4 GET /check-results (revalidating with the last
+ * ETag, so most answer 304), 3 GET /health, 2 POST /buy-ticket (the user's
+ * balance runs out after ten, then they are refused) and 1 POST /login.
+ * After a warm-up the requests in the measured window are counted and timed.
+ * Engines alternate for the given number of rounds; prints req/s, p50 and
+ * p99 per run and exits with 1 if any request failed or the server dropped
+ * a connection.
+ *
+ * Usage: java optional.HttpEngineLoadHarness [connections] [seconds] [rounds] [port]
+ * (defaults 32 connections, 10 seconds, 2 rounds, ports from 8180)
+ */
+public class HttpEngineLoadHarness {
+    private static final String[] ENGINES = {"jdk", "nio"};
+    private static final long WARMUP_MILLIS = 3000;
+    // Per connection, enough for any plausible window; later samples are dropped
+    private static final int MAX_SAMPLES = 1 << 17;
+
+    private static final class Result {
+        long requests;
+        long errors;
+        double seconds;
+        long[] latencies;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 8180;
+
+        // The module announces itself on every start; keep the table readable
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        out.printf("%d keep-alive connections, %d s per run%n", connections, seconds);
+        out.printf("%-6s %6s %12s %10s %10s %8s%n", "engine", "round", "req/s", "p50 us", "p99 us", "errors");
+        double[] totals = new double[ENGINES.length];
+        boolean ok = true;
+        int run = 0;
+        for (int round = 1; round <= rounds; round++) {
+            for (int e = 0; e < ENGINES.length; e++) {
+                Result result = measure(ENGINES[e], port + run++, connections, seconds);
+                double rate = result.requests / result.seconds;
+                totals[e] += rate;
+                ok &= result.errors == 0;
+                out.printf("%-6s %6d %12.0f %10.0f %10.0f %8d%n", ENGINES[e], round, rate,
+                        percentile(result.latencies, 0.50) / 1e3, percentile(result.latencies, 0.99) / 1e3,
+                        result.errors);
+            }
+        }
+        out.printf("mean req/s: jdk %.0f, nio %.0f%n", totals[0] / rounds, totals[1] / rounds);
+        out.println(ok ? "PASS" : "FAIL (request errors)");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static Result measure(String engine, int port, int connections, int seconds) throws Exception {
+        System.setProperty(HttpEngine.ENGINE_PROPERTY, engine);
+        DataManager dataManager = new DataManager();
+        HttpServerModule module = new HttpServerModule(dataManager, ExecutionMode.fromSystemProperties(),
+                ExecutionMode.poolSizeFromSystemProperties());
+        module.start(port);
+        try {
+            AtomicBoolean measuring = new AtomicBoolean();
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicLong errors = new AtomicLong();
+            AtomicLong dropped = new AtomicLong();
+            CountDownLatch done = new CountDownLatch(connections);
+            List<long[]> samples = new ArrayList<>();
+            int[] counts = new int[connections];
+            for (int c = 0; c < connections; c++) {
+                long[] mine = new long[MAX_SAMPLES];
+                samples.add(mine);
+                int index = c;
+                Thread client = new Thread(() -> {
+                    try (Socket socket = new Socket("localhost", port)) {
+                        socket.setTcpNoDelay(true);
+                        Connection connection = new Connection(socket, port);
+                        String username = engine + "-load-" + index;
+                        int step = 0;
+                        while (running.get()) {
+                            long began = System.nanoTime();
+                            if (!connection.next(step++ % 10, username)) errors.incrementAndGet();
+                            if (measuring.get() && counts[index] < mine.length) {
+                                mine[counts[index]++] = System.nanoTime() - began;
+                            }
+                        }
+                    } catch (IOException e) {
+                        dropped.incrementAndGet();
+                        System.err.println("Connection " + index + " failed: " + e.getMessage());
+                    } finally {
+                        done.countDown();
+                    }
+                }, "client-" + c);
+                client.start();
+            }
+
+            Thread.sleep(WARMUP_MILLIS);
+            long errorsBefore = errors.get();
+            measuring.set(true);
+            long began = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            measuring.set(false);
+            long elapsed = System.nanoTime() - began;
+            long measuredErrors = errors.get() - errorsBefore;
+            running.set(false);
+            done.await();
+
+            Result result = new Result();
+            result.seconds = elapsed / 1e9;
+            // A dropped connection spoils the whole run, whenever it happened
+            result.errors = measuredErrors + dropped.get();
+            int total = 0;
+            for (int count : counts) total += count;
+            result.latencies = new long[total];
+            int at = 0;
+            for (int c = 0; c < connections; c++) {
+                System.arraycopy(samples.get(c), 0, result.latencies, at, counts[c]);
+                at += counts[c];
+            }
+            result.requests = total;
+            Arrays.sort(result.latencies);
+            return result;
+        } finally {
+            module.stop();
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * fraction) - 1)];
+    }
+
+    /** One keep-alive HTTP/1.1 connection; responses must carry a Content-Length (or have no body). */
+    private static final class Connection {
+        private final OutputStream out;
+        private final InputStream in;
+        private final String host;
+        private String etag;
+
+        Connection(Socket socket, int port) throws IOException {
+            this.out = socket.getOutputStream();
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.host = "localhost:" + port;
+        }
+
+        /** Send the given step of the mix; false if the answer was not a success. */
+        boolean next(int step, String username) throws IOException {
+            switch (step) {
+                case 0:
+                    return post("/login", "{\"action\":\"login\",\"username\":\"" + username + "\"}");
+                case 1:
+                case 5:
+                    return post("/buy-ticket", "{\"action\":\"buyTicket\",\"username\":\"" + username + "\"}");
+                case 2:
+                case 4:
+                case 7:
+                    return get("/health");
+                default:
+                    return get("/check-results?username=" + username);
+            }
+        }
+
+        private boolean get(String target) throws IOException {
+            String conditional = target.startsWith("/check-results") && etag != null
+                    ? "If-None-Match: " + etag + "\r\n" : "";
+            return exchange("GET " + target + " HTTP/1.1\r\nHost: " + host + "\r\n" + conditional + "\r\n", null);
+        }
+
+        private boolean post(String target, String json) throws IOException {
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            return exchange("POST " + target + " HTTP/1.1\r\nHost: " + host
+                    + "\r\nContent-Type: application/json\r\nContent-Length: " + body.length + "\r\n\r\n", body);
+        }
+
+        private boolean exchange(String head, byte[] body) throws IOException {
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            if (body != null) out.write(body);
+            out.flush();
+
+            String status = readLine();
+            if (status == null) throw new IOException("Connection closed by server");
+            int code = Integer.parseInt(status.split(" ")[1]);
+            int length = 0;
+            String line;
+            while ((line = readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) continue;
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    length = Integer.parseInt(value);
+                } else if (name.equalsIgnoreCase("ETag")) {
+                    etag = value;
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    throw new IOException("Unexpected " + line);
+                }
+            }
+            for (int left = code == 304 ? 0 : length; left > 0; left--) {
+                if (in.read() < 0) throw new IOException("Truncated body");
+            }
+            return code == 200 || code == 304;
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b == '\n') return line.toString(StandardCharsets.US_ASCII).replace("\r", "");
+                line.write(b);
+            }
+            return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+        }
+    }
+}
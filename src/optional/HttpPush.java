@@ -0,0 +1,24 @@
+package optional;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open-ended response written to from outside the route that started it.
+ * The route returns straight away and whoever holds the push feeds it, so a
+ * long-lived stream does not park a worker thread. Writes never block.
+ */
+interface HttpPush {
+    /**
+     * Queue data for the client. The buffer's remaining bytes are shared, not
+     * copied, and must never be modified. Returns false once the client is gone.
+     */
+    boolean write(ByteBuffer data);
+
+    /** Bytes queued that the client's socket has not accepted yet. */
+    long getPendingBytes();
+
+    boolean isOpen();
+
+    /** End the response. */
+    void close();
+}
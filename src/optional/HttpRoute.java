@@ -0,0 +1,11 @@
+package optional;
+
+import java.io.IOException;
+
+/**
+ * Handler for one exact request path, independent of the HTTP engine serving it.
+ */
+@FunctionalInterface
+interface HttpRoute {
+    void handle(HttpCall call) throws IOException;
+}
@@ -1,148 +1,417 @@
 package optional;
 
-import com.sun.net.httpserver.HttpServer;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpExchange;
+import model.TicketBatch;
 import server.DataManager;
+import server.ExecutionMode;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import protocol.ByteSink;
 import protocol.MessageParser;
 import protocol.Request;
-import protocol.Response;
+import protocol.RequestCodec;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
-import java.net.InetSocketAddress;
-import java.util.Map;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // Note: This HTTP server now serves as a coordination layer.
 // Most user operations (login, buy tickets, check results) are handled client-side with Firebase.
 // Admin operations and legacy support remain here for backward compatibility.
 public class HttpServerModule {
-    private HttpServer server;
+    // Ticket listings: ?afterId=N&limit=M pages by ticket id, no parameters streams everything
+    public static final int MAX_PAGE_SIZE = 1000;
+    private static final int STREAM_PAGE_ROWS = 512;
+    // Upper bound on operations in one /batch request
+    public static final int MAX_BATCH_OPERATIONS = 50;
+
+    private static final byte[] HEALTH_BODY =
+            "{\"status\":\"OK\",\"message\":\"Lottery server is running\"}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpEngine engine;
     private DataManager dataManager;
-    private MessageParser messageParser;
+    private ExecutionMode executionMode;
+    private int poolSize;
+    private ExecutorService executor;
+    // Routes a /batch operation may name; listings and /batch itself excluded
+    private final Map<String, HttpRoute> batchRoutes = new HashMap<>();
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+
+    // ETags carry a per-process epoch since state versions restart from zero
+    private final String etagEpoch = Long.toString(System.currentTimeMillis(), 36);
+    // Rendered /results, reused until DataManager's state version moves on
+    private volatile CachedBody resultsCache;
+
+    private static final class CachedBody {
+        final long version;
+        final String etag;
+        final byte[] body;
+
+        CachedBody(long version, String etag, byte[] body) {
+            this.version = version;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+
+    /**
+     * In-process call for one /batch operation: the operation object is the
+     * request body and the route's response body is captured instead of sent.
+     */
+    private static final class BatchCall implements HttpCall {
+        private final String path;
+        private final byte[] body;
+        private byte[] response;
+
+        BatchCall(String path, byte[] body) {
+            this.path = path;
+            this.body = body;
+        }
+
+        @Override public String getMethod() { return "POST"; }
+        @Override public String getPath() { return path; }
+        @Override public String getQuery() { return null; }
+        @Override public String getRequestHeader(String name) { return null; }
+        @Override public byte[] getBody() { return body; }
+        @Override public void setHeader(String name, String value) { }
+
+        @Override
+        public void send(int status, ByteBuffer body) {
+            // Copied, since the caller may reuse the buffer once send returns
+            response = new byte[body.remaining()];
+            body.duplicate().get(response);
+        }
+
+        @Override
+        public void sendEmpty(int status) {
+            response = null;
+        }
+
+        @Override
+        public OutputStream stream(int status) throws IOException {
+            throw new IOException("Streamed responses cannot be batched");
+        }
+
+        void writeResponse(ByteSink out) {
+            if (response == null) {
+                out.writeAscii("null");
+            } else {
+                out.writeBytes(response);
+            }
+        }
+    }
 
     public HttpServerModule(DataManager dataManager) {
+        this(dataManager, ExecutionMode.fromSystemProperties(), ExecutionMode.poolSizeFromSystemProperties());
+    }
+
+    public HttpServerModule(DataManager dataManager, ExecutionMode executionMode, int poolSize) {
         this.dataManager = dataManager;
-        this.messageParser = new MessageParser();
+        this.executionMode = executionMode;
+        this.poolSize = poolSize;
     }
 
     public void start(int port) throws IOException {
-        server = HttpServer.create(new InetSocketAddress(port), 0);
-
-        // Register all HTTP endpoints
-        server.createContext("/health", new HealthHandler());
-        server.createContext("/login", new LoginHandler());
-        server.createContext("/buy-ticket", new BuyTicketHandler());
-        server.createContext("/check-results", new CheckResultsHandler());
-        server.createContext("/admin-login", new AdminLoginHandler());
-        server.createContext("/set-winner", new SetWinnerHandler());
-        server.createContext("/view-tickets", new ViewTicketsHandler());
-        server.createContext("/announce-results", new AnnounceResultsHandler());
+        // Register all HTTP endpoints (exact paths)
+        Map<String, HttpRoute> routes = new LinkedHashMap<>();
+        routes.put("/health", new HealthHandler());
+        routes.put("/login", new LoginHandler());
+        routes.put("/buy-ticket", new BuyTicketHandler());
+        routes.put("/buy-tickets", new BuyTicketsHandler());
+        routes.put("/check-results", new CheckResultsHandler());
+        routes.put("/admin-login", new AdminLoginHandler());
+        routes.put("/set-winner", new SetWinnerHandler());
+        routes.put("/view-tickets", new ViewTicketsHandler());
+        routes.put("/announce-results", new AnnounceResultsHandler());
+        routes.put("/events", new EventsHandler());
 
         // Legacy endpoints
-        server.createContext("/results", new ResultsHandler());
-        server.createContext("/tickets", new TicketsHandler());
+        routes.put("/results", new ResultsHandler());
+        routes.put("/tickets", new TicketsHandler());
+
+        for (String path : new String[] {"/health", "/login", "/buy-ticket", "/buy-tickets", "/check-results",
+                "/admin-login", "/set-winner", "/announce-results", "/results"}) {
+            batchRoutes.put(path, routes.get(path));
+        }
+        routes.put("/batch", new BatchHandler());
+        routes.put("/metrics", new MetricsHandler());
+
+        // Latency per route; /events is left out since its requests last as long as the client stays
+        for (Map.Entry<String, HttpRoute> entry : routes.entrySet()) {
+            if (!"/events".equals(entry.getKey())) entry.setValue(timed(entry.getKey(), entry.getValue()));
+        }
 
-        server.setExecutor(null);
-        server.start();
+        // Routes run here, never on the engine's I/O threads
+        executor = executionMode.newExecutor("http", poolSize);
+        engine = HttpEngine.fromSystemProperties();
+        engine.start(port, routes, executor);
+        registerGauges();
         System.out.println("HTTP Server started on port " + port);
         System.out.println("Note: Most operations now handled client-side with Firebase");
     }
 
     public void stop() {
-        if (server != null) server.stop(0);
+        SseBroadcaster.closeAll();
+        if (engine != null) engine.stop();
+        if (executor != null) executor.shutdown();
     }
 
-    // Helper method to read JSON from request body
-    private String readRequestBody(HttpExchange exchange) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody()))) {
-            StringBuilder body = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                body.append(line);
+    private HttpRoute timed(String path, HttpRoute route) {
+        LatencyHistogram latency = MetricsRegistry.getDefault().histogram("lottery_http_request_seconds",
+                "Time to handle one HTTP request, by route", "route", path);
+        return call -> {
+            long start = System.nanoTime();
+            requestsInFlight.incrementAndGet();
+            try {
+                route.handle(call);
+            } finally {
+                requestsInFlight.decrementAndGet();
+                latency.recordSince(start);
             }
-            return body.toString();
+        };
+    }
+
+    private void registerGauges() {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.gauge("lottery_http_requests_in_flight", "HTTP requests being handled", requestsInFlight::get);
+        if (engine.getOpenConnections() >= 0) {
+            HttpEngine current = engine;
+            metrics.gauge("lottery_connections", "Open client connections, by front-end",
+                    current::getOpenConnections, "frontend", "http");
         }
+        metrics.gauge("lottery_connections", "Open client connections, by front-end",
+                SseBroadcaster::getStreamCount, "frontend", "sse");
+    }
+
+    // Helper method to decode the JSON request body straight from its bytes
+    private Request readRequest(HttpCall call) throws IOException {
+        return RequestCodec.decode(call.getBody());
+    }
+
+    private void setCorsHeaders(HttpCall call) {
+        call.setHeader("Access-Control-Allow-Origin", "*");
+        call.setHeader("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+        call.setHeader("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
+        call.setHeader("Access-Control-Expose-Headers", "ETag");
+    }
+
+    private String etag(String... parts) {
+        return "\"" + etagEpoch + "-" + String.join("-", parts) + "\"";
+    }
+
+    /**
+     * 64 bits of the username's SHA-256, so tags identify the user without exposing the name.
+     */
+    private static String userTag(String username) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(username.getBytes(StandardCharsets.UTF_8));
+            return Long.toHexString(ByteBuffer.wrap(digest).getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // If-None-Match holds one or more tags (or *); weak comparison as for GET
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Answer 304 Not Modified if the client already holds this tag.
+     */
+    private boolean sendIfNotModified(HttpCall call, String etag) throws IOException {
+        if (!etagMatches(call.getRequestHeader("If-None-Match"), etag)) return false;
+        call.setHeader("ETag", etag);
+        call.setHeader("Cache-Control", "no-cache");
+        setCorsHeaders(call);
+        call.sendEmpty(304);
+        return true;
+    }
+
+    /**
+     * Conditional JSON response: 304 with no body if the client already holds
+     * this tag, otherwise the given bytes. Clients must revalidate every time.
+     */
+    private void sendTaggedJson(HttpCall call, String etag, byte[] body) throws IOException {
+        if (sendIfNotModified(call, etag)) return;
+        call.setHeader("ETag", etag);
+        call.setHeader("Cache-Control", "no-cache");
+        call.setHeader("Content-Type", "application/json");
+        setCorsHeaders(call);
+        call.send(200, body);
     }
 
     // Helper method to send JSON response
-    private void sendJsonResponse(HttpExchange exchange, String jsonResponse) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-        exchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Content-Type");
+    private void sendJsonResponse(HttpCall call, String jsonResponse) throws IOException {
+        call.setHeader("Content-Type", "application/json");
+        setCorsHeaders(call);
+        call.send(200, jsonResponse.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq >= 0 ? pair.substring(0, eq) : pair;
+            String value = eq >= 0 ? pair.substring(eq + 1) : "";
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /**
+     * Ticket listing shared by /view-tickets (wrapped in a success envelope)
+     * and /tickets (bare array). With afterId and/or limit it returns one page
+     * and the cursor for the next (X-Next-After-Id header, plus nextAfterId and
+     * hasMore in the envelope); without them it streams every ticket in pages
+     * of STREAM_PAGE_ROWS, so memory use does not grow with the ticket count.
+     */
+    private void sendTickets(HttpCall call, boolean envelope) throws IOException {
+        Map<String, String> params = parseQuery(call.getQuery());
+        String afterParam = params.get("afterId");
+        String limitParam = params.get("limit");
+        if (afterParam == null && limitParam == null) {
+            streamTickets(call, envelope);
+            return;
+        }
 
-        byte[] responseBytes = jsonResponse.getBytes();
-        exchange.sendResponseHeaders(200, responseBytes.length);
+        int afterId;
+        int limit;
+        try {
+            afterId = afterParam != null ? Integer.parseInt(afterParam) : DataManager.FIRST_TICKET_ID - 1;
+            limit = limitParam != null ? Integer.parseInt(limitParam) : MAX_PAGE_SIZE;
+        } catch (NumberFormatException e) {
+            sendJsonResponse(call, "{\"success\":false,\"message\":\"afterId and limit must be integers\"}");
+            return;
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            sendJsonResponse(call, "{\"success\":false,\"message\":\"limit must be between 1 and "
+                    + MAX_PAGE_SIZE + "\"}");
+            return;
+        }
+
+        int throughId = dataManager.getLastTicketId();
+        ByteSink out = new ByteSink(Math.min(limit, 64) * 96 + 64);
+        out.writeAscii(envelope ? "{\"success\":true,\"tickets\":[" : "[");
+        int next = dataManager.writeTicketRows(out, afterId, throughId, limit, false);
+        boolean hasMore = next < throughId;
+        out.writeByte(']');
+        if (envelope) {
+            out.writeAscii(",\"nextAfterId\":").writeInt(next)
+               .writeAscii(",\"hasMore\":").writeAscii(hasMore ? "true" : "false").writeByte('}');
+        }
+        if (hasMore) call.setHeader("X-Next-After-Id", Integer.toString(next));
+        call.setHeader("Content-Type", "application/json");
+        setCorsHeaders(call);
+        call.send(200, ByteBuffer.wrap(out.array(), 0, out.size()));
+    }
 
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(responseBytes);
+    private void streamTickets(HttpCall call, boolean envelope) throws IOException {
+        call.setHeader("Content-Type", "application/json");
+        setCorsHeaders(call);
+        int throughId = dataManager.getLastTicketId();
+        ByteSink page = new ByteSink(STREAM_PAGE_ROWS * 96);
+        try (OutputStream body = call.stream(200)) {
+            page.writeAscii(envelope ? "{\"success\":true,\"tickets\":[" : "[");
+            int cursor = DataManager.FIRST_TICKET_ID - 1;
+            boolean continuing = false;
+            while (cursor < throughId) {
+                int before = page.size();
+                cursor = dataManager.writeTicketRows(page, cursor, throughId, STREAM_PAGE_ROWS, continuing);
+                continuing |= page.size() > before;
+                page.writeTo(body);
+                page.reset();
+            }
+            page.writeAscii(envelope ? "]}" : "]");
+            page.writeTo(body);
         }
     }
 
-    class HealthHandler implements HttpHandler {
+    // Helper method to answer a CORS preflight
+    private void sendPreflight(HttpCall call) throws IOException {
+        setCorsHeaders(call);
+        call.sendEmpty(200);
+    }
+
+    class HealthHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String response = "{\"status\":\"OK\",\"message\":\"Lottery server is running\"}";
-            sendJsonResponse(exchange, response);
+        public void handle(HttpCall call) throws IOException {
+            sendTaggedJson(call, etag("health"), HEALTH_BODY);
         }
     }
 
-    class LoginHandler implements HttpHandler {
+    class LoginHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
                 return;
             }
 
             try {
-                String requestBody = readRequestBody(exchange);
-                Map<String, Object> requestData = messageParser.parseJsonObject(requestBody);
+                Request requestData = readRequest(call);
 
-                String username = (String) requestData.get("username");
+                String username = requestData.getUsername();
                 if (username == null || username.trim().isEmpty()) {
                     String response = "{\"success\":false,\"message\":\"Username is required\"}";
-                    sendJsonResponse(exchange, response);
+                    sendJsonResponse(call, response);
                     return;
                 }
 
                 // Create user if doesn't exist
-                dataManager.createUserIfNotExists(username);
+                if (!dataManager.createUserIfNotExists(username)) {
+                    sendJsonResponse(call, "{\"success\":false,\"message\":\"Login failed: account could not be saved\"}");
+                    return;
+                }
 
                 // Get user balance
                 double balance = dataManager.getUserBalance(username);
 
-                String response = String.format("{\"success\":true,\"username\":\"%s\",\"balance\":%d}",
-                        username, balance);
-                sendJsonResponse(exchange, response);
+                // The token lets this user's WebSocket session receive their own events
+                String response = String.format("{\"success\":true,\"username\":\"%s\",\"balance\":%d,\"token\":\"%s\"}",
+                        username, (int)balance, SessionTokens.issue(username, false));
+                sendJsonResponse(call, response);
 
             } catch (Exception e) {
                 String response = "{\"success\":false,\"message\":\"Login failed: " + e.getMessage() + "\"}";
-                sendJsonResponse(exchange, response);
+                sendJsonResponse(call, response);
             }
         }
     }
 
-    class BuyTicketHandler implements HttpHandler {
+    class BuyTicketHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
                 return;
             }
 
             try {
-                String requestBody = readRequestBody(exchange);
-                Map<String, Object> requestData = messageParser.parseJsonObject(requestBody);
+                Request requestData = readRequest(call);
 
-                String username = (String) requestData.get("username");
+                String username = requestData.getUsername();
                 if (username == null || username.trim().isEmpty()) {
                     String response = "{\"success\":false,\"message\":\"Username is required\"}";
-                    sendJsonResponse(exchange, response);
+                    sendJsonResponse(call, response);
                     return;
                 }
 
@@ -153,134 +422,185 @@ public class HttpServerModule {
                     String numbersJson = java.util.Arrays.toString(numbers);
                     String response = String.format("{\"success\":true,\"numbers\":%s,\"balance\":%d}",
                             numbersJson, (int)balance);
-                    sendJsonResponse(exchange, response);
+                    sendJsonResponse(call, response);
                 } else {
                     String response = "{\"success\":false,\"message\":\"Insufficient balance or user not found\"}";
-                    sendJsonResponse(exchange, response);
+                    sendJsonResponse(call, response);
                 }
 
             } catch (Exception e) {
                 String response = "{\"success\":false,\"message\":\"Buy ticket failed: " + e.getMessage() + "\"}";
-                sendJsonResponse(exchange, response);
+                sendJsonResponse(call, response);
             }
         }
     }
 
-    class CheckResultsHandler implements HttpHandler {
+    class BuyTicketsHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
                 return;
             }
 
             try {
-                String requestBody = readRequestBody(exchange);
-                Map<String, Object> requestData = messageParser.parseJsonObject(requestBody);
+                Request requestData = readRequest(call);
+
+                String username = requestData.getUsername();
+                if (username == null || username.trim().isEmpty()) {
+                    String response = "{\"success\":false,\"message\":\"Username is required\"}";
+                    sendJsonResponse(call, response);
+                    return;
+                }
 
-                String username = (String) requestData.get("username");
+                int count = requestData.getCount();
+                if (count < 1 || count > DataManager.MAX_BULK_TICKETS) {
+                    String response = "{\"success\":false,\"message\":\"Count must be between 1 and "
+                            + DataManager.MAX_BULK_TICKETS + "\"}";
+                    sendJsonResponse(call, response);
+                    return;
+                }
+
+                TicketBatch batch = dataManager.buyTickets(username, count);
+                if (batch != null) {
+                    double balance = dataManager.getUserBalance(username);
+                    StringBuilder numbersJson = new StringBuilder("[");
+                    for (int i = 0; i < batch.getCount(); i++) {
+                        if (i > 0) numbersJson.append(",");
+                        numbersJson.append(java.util.Arrays.toString(batch.getNumbers()[i]));
+                    }
+                    numbersJson.append("]");
+                    String response = String.format("{\"success\":true,\"firstTicketId\":%d,\"count\":%d,\"numbers\":%s,\"balance\":%d}",
+                            batch.getFirstTicketId(), batch.getCount(), numbersJson, (int)balance);
+                    sendJsonResponse(call, response);
+                } else {
+                    String response = "{\"success\":false,\"message\":\"Insufficient balance or user not found\"}";
+                    sendJsonResponse(call, response);
+                }
+
+            } catch (Exception e) {
+                String response = "{\"success\":false,\"message\":\"Buy tickets failed: " + e.getMessage() + "\"}";
+                sendJsonResponse(call, response);
+            }
+        }
+    }
+
+    class CheckResultsHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
+                return;
+            }
+
+            try {
+                // Pollers can GET ?username=... and revalidate with If-None-Match
+                String username = "GET".equals(call.getMethod())
+                        ? parseQuery(call.getQuery()).get("username")
+                        : readRequest(call).getUsername();
                 if (username == null || username.trim().isEmpty()) {
                     String response = "{\"success\":false,\"message\":\"Username is required\"}";
-                    sendJsonResponse(exchange, response);
+                    sendJsonResponse(call, response);
                     return;
                 }
 
+                // A user's results only change with a draw or a ticket of their own;
+                // tag first so the body rendered below is never older than the tag.
+                // The user is part of the tag, so one user's tag never matches another's
+                String etag = etag("u", userTag(username), Long.toString(dataManager.getDrawVersion()),
+                        Integer.toString(dataManager.getUserTicketCount(username)));
+                if (sendIfNotModified(call, etag)) return;
+
                 // Get user tickets and check results
                 String ticketsJson = dataManager.getUserTicketsJson(username);
                 String response = String.format("{\"success\":true,\"tickets\":%s}", ticketsJson);
-                sendJsonResponse(exchange, response);
+                sendTaggedJson(call, etag, response.getBytes(StandardCharsets.UTF_8));
 
             } catch (Exception e) {
                 String response = "{\"success\":false,\"message\":\"Check results failed: " + e.getMessage() + "\"}";
-                sendJsonResponse(exchange, response);
+                sendJsonResponse(call, response);
             }
         }
     }
 
-    class AdminLoginHandler implements HttpHandler {
+    class AdminLoginHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
                 return;
             }
 
             try {
-                String requestBody = readRequestBody(exchange);
-                Map<String, Object> requestData = messageParser.parseJsonObject(requestBody);
+                Request requestData = readRequest(call);
 
-                String password = (String) requestData.get("password");
+                String password = requestData.getPassword();
                 if ("admin123".equals(password)) {
-                    String response = "{\"success\":true,\"message\":\"Admin login successful\"}";
-                    sendJsonResponse(exchange, response);
+                    String response = "{\"success\":true,\"message\":\"Admin login successful\",\"token\":\""
+                            + SessionTokens.issue("admin", true) + "\"}";
+                    sendJsonResponse(call, response);
                 } else {
                     String response = "{\"success\":false,\"message\":\"Invalid admin password\"}";
-                    sendJsonResponse(exchange, response);
+                    sendJsonResponse(call, response);
                 }
 
             } catch (Exception e) {
                 String response = "{\"success\":false,\"message\":\"Admin login failed: " + e.getMessage() + "\"}";
-                sendJsonResponse(exchange, response);
+                sendJsonResponse(call, response);
             }
         }
     }
 
-    class SetWinnerHandler implements HttpHandler {
+    class SetWinnerHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
                 return;
             }
 
             try {
-                String requestBody = readRequestBody(exchange);
-                Map<String, Object> requestData = messageParser.parseJsonObject(requestBody);
+                Request requestData = readRequest(call);
 
-                Integer winningNumber = ((Double) requestData.get("winningNumber")).intValue();
-                if (winningNumber == null || winningNumber < 1 || winningNumber > 10) {
+                int winningNumber = requestData.getWinningNumber();
+                if (winningNumber < 1 || winningNumber > 10) {
                     String response = "{\"success\":false,\"message\":\"Invalid winning number\"}";
-                    sendJsonResponse(exchange, response);
+                    sendJsonResponse(call, response);
                     return;
                 }
 
-                dataManager.setWinningNumber(winningNumber);
+                if (!dataManager.setWinningNumber(winningNumber)) {
+                    sendJsonResponse(call, "{\"success\":false,\"message\":\"Winning number could not be recorded\"}");
+                    return;
+                }
                 String response = String.format("{\"success\":true,\"winningNumber\":%d,\"message\":\"Winning number set successfully\"}",
                         winningNumber);
-                sendJsonResponse(exchange, response);
+                sendJsonResponse(call, response);
 
             } catch (Exception e) {
                 String response = "{\"success\":false,\"message\":\"Set winner failed: " + e.getMessage() + "\"}";
-                sendJsonResponse(exchange, response);
+                sendJsonResponse(call, response);
             }
         }
     }
 
-    class ViewTicketsHandler implements HttpHandler {
+    class ViewTicketsHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
                 return;
             }
 
-            try {
-                String ticketsJson = dataManager.getAllTicketsJson();
-                String response = String.format("{\"success\":true,\"tickets\":%s}", ticketsJson);
-                sendJsonResponse(exchange, response);
-
-            } catch (Exception e) {
-                String response = "{\"success\":false,\"message\":\"View tickets failed: " + e.getMessage() + "\"}";
-                sendJsonResponse(exchange, response);
-            }
+            sendTickets(call, true);
         }
     }
 
-    class AnnounceResultsHandler implements HttpHandler {
+    class AnnounceResultsHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if ("OPTIONS".equals(exchange.getRequestMethod())) {
-                exchange.sendResponseHeaders(200, -1);
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
                 return;
             }
 
@@ -288,30 +608,147 @@ public class HttpServerModule {
                 // Announce results to all users (this would need to be implemented in DataManager)
                 // For now, just return success
                 String response = "{\"success\":true,\"message\":\"Results announced to all users\"}";
-                sendJsonResponse(exchange, response);
+                sendJsonResponse(call, response);
 
             } catch (Exception e) {
                 String response = "{\"success\":false,\"message\":\"Announce results failed: " + e.getMessage() + "\"}";
-                sendJsonResponse(exchange, response);
+                sendJsonResponse(call, response);
+            }
+        }
+    }
+
+    /**
+     * Every registered metric in the Prometheus text format.
+     */
+    class MetricsHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            ByteSink out = new ByteSink(16 * 1024);
+            MetricsRegistry.getDefault().writeTo(out);
+            call.setHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            call.setHeader("Cache-Control", "no-cache");
+            call.send(200, ByteBuffer.wrap(out.array(), 0, out.size()));
+        }
+    }
+
+    /**
+     * Server-Sent Events stream of WINNING_NUMBER, TICKET_COUNT, LIVE_STATS and
+     * ANNOUNCEMENT, for clients that cannot use the WebSocket. Resumes after
+     * the Last-Event-ID header (or ?lastEventId=) when reconnecting.
+     */
+    class EventsHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
+                return;
+            }
+
+            String lastEventId = call.getRequestHeader("Last-Event-ID");
+            if (lastEventId == null) lastEventId = parseQuery(call.getQuery()).get("lastEventId");
+            call.setHeader("Content-Type", "text/event-stream");
+            call.setHeader("Cache-Control", "no-cache");
+            call.setHeader("X-Accel-Buffering", "no");
+            setCorsHeaders(call);
+
+            // With push the stream is fed by the broadcaster and no thread waits here
+            HttpPush push = call.push(200);
+            if (push != null) {
+                SseBroadcaster.attach(push, lastEventId);
+                return;
+            }
+            try (OutputStream body = call.stream(200)) {
+                SseBroadcaster.stream(body, lastEventId);
+            }
+        }
+    }
+
+    /**
+     * Runs an ordered array of operations in one exchange, e.g.
+     * [{"path":"/login","username":"bob"},{"path":"/buy-ticket","username":"bob"}].
+     * Each operation object is handed to its route as the POST body, so it
+     * behaves exactly like the individual request; the response is the array
+     * of those routes' bodies, in order. A failed operation does not stop the
+     * ones after it.
+     */
+    class BatchHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if ("OPTIONS".equals(call.getMethod())) {
+                sendPreflight(call);
+                return;
+            }
+
+            JsonArray operations;
+            try {
+                operations = MessageParser.fromJson(new String(call.getBody(), StandardCharsets.UTF_8), JsonArray.class);
+            } catch (RuntimeException e) {
+                operations = null;
+            }
+            if (operations == null) {
+                sendJsonResponse(call, "{\"success\":false,\"message\":\"Body must be a JSON array of operations\"}");
+                return;
+            }
+            if (operations.size() > MAX_BATCH_OPERATIONS) {
+                sendJsonResponse(call, "{\"success\":false,\"message\":\"At most " + MAX_BATCH_OPERATIONS
+                        + " operations per batch\"}");
+                return;
+            }
+
+            ByteSink out = new ByteSink(operations.size() * 128 + 2);
+            out.writeByte('[');
+            for (int i = 0; i < operations.size(); i++) {
+                if (i > 0) out.writeByte(',');
+                runOperation(operations.get(i), out);
+            }
+            out.writeByte(']');
+            call.setHeader("Content-Type", "application/json");
+            setCorsHeaders(call);
+            call.send(200, ByteBuffer.wrap(out.array(), 0, out.size()));
+        }
+
+        private void runOperation(JsonElement operation, ByteSink out) {
+            JsonElement pathElement = operation.isJsonObject() ? ((JsonObject) operation).get("path") : null;
+            String path = pathElement != null && pathElement.isJsonPrimitive() ? pathElement.getAsString() : null;
+            HttpRoute route = path != null ? batchRoutes.get(path) : null;
+            if (route == null) {
+                out.writeAscii("{\"success\":false,\"message\":").writeJsonString("Unknown operation: " + path)
+                   .writeByte('}');
+                return;
+            }
+            BatchCall call = new BatchCall(path, operation.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                route.handle(call);
+                call.writeResponse(out);
+            } catch (IOException | RuntimeException e) {
+                out.writeAscii("{\"success\":false,\"message\":").writeJsonString("Operation failed: " + e.getMessage())
+                   .writeByte('}');
             }
         }
     }
 
     // Legacy handlers
-    class ResultsHandler implements HttpHandler {
+    class ResultsHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String response = String.format("{\"winningNumber\":%d,\"totalTickets\":%d}",
-                    dataManager.getWinningNumber(), dataManager.getTicketCount());
-            sendJsonResponse(exchange, response);
+        public void handle(HttpCall call) throws IOException {
+            long version = dataManager.getStateVersion();
+            CachedBody cached = resultsCache;
+            if (cached == null || cached.version != version) {
+                // Render after reading the version, so the body is never older than its tag
+                String response = String.format("{\"winningNumber\":%d,\"totalTickets\":%d}",
+                        dataManager.getWinningNumber(), dataManager.getTicketCount());
+                cached = new CachedBody(version, etag("r", Long.toString(version)),
+                        response.getBytes(StandardCharsets.UTF_8));
+                resultsCache = cached;
+            }
+            sendTaggedJson(call, cached.etag, cached.body);
         }
     }
 
-    class TicketsHandler implements HttpHandler {
+    class TicketsHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String response = dataManager.getAllTicketsJson();
-            sendJsonResponse(exchange, response);
+        public void handle(HttpCall call) throws IOException {
+            sendTickets(call, false);
         }
     }
 }
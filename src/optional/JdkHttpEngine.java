@@ -0,0 +1,126 @@
+package optional;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * HttpEngine on the JDK's com.sun.net.httpserver. Contexts there match by
+ * prefix, so anything but the exact route path gets a 404 like on the NIO engine.
+ */
+class JdkHttpEngine implements HttpEngine {
+    // Read once, when the JDK's server config class loads; an explicit -D wins
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+    private static final byte[] NOT_FOUND =
+            "{\"success\":false,\"message\":\"Not found\"}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+
+    @Override
+    public void start(int port, Map<String, HttpRoute> routes, ExecutorService executor) throws IOException {
+        // Headers and body go out as separate writes; with Nagle on, the body
+        // waits for the client's delayed ACK, about 40 ms per keep-alive request
+        if (System.getProperty(NODELAY_PROPERTY) == null) System.setProperty(NODELAY_PROPERTY, "true");
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        for (Map.Entry<String, HttpRoute> entry : routes.entrySet()) {
+            String path = entry.getKey();
+            HttpRoute route = entry.getValue();
+            server.createContext(path, exchange -> {
+                try {
+                    JdkCall call = new JdkCall(exchange);
+                    if (path.equals(call.getPath())) {
+                        route.handle(call);
+                    } else {
+                        call.send(404, NOT_FOUND);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            });
+        }
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        if (server != null) server.stop(0);
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return -1; // HttpServer does not expose its connections
+    }
+
+    private static class JdkCall implements HttpCall {
+        private final HttpExchange exchange;
+
+        JdkCall(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override public String getMethod() { return exchange.getRequestMethod(); }
+        @Override public String getPath() { return exchange.getRequestURI().getRawPath(); }
+        @Override public String getQuery() { return exchange.getRequestURI().getRawQuery(); }
+
+        @Override
+        public String getRequestHeader(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        @Override
+        public byte[] getBody() throws IOException {
+            try (InputStream body = exchange.getRequestBody()) {
+                return body.readAllBytes();
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            exchange.getResponseHeaders().set(name, value);
+        }
+
+        @Override
+        public void send(int status, ByteBuffer body) throws IOException {
+            int length = body.remaining();
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            if (head || length == 0) {
+                sendEmpty(status);
+                return;
+            }
+            exchange.sendResponseHeaders(status, length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (body.hasArray()) {
+                    os.write(body.array(), body.arrayOffset() + body.position(), length);
+                } else {
+                    byte[] copy = new byte[length];
+                    body.duplicate().get(copy);
+                    os.write(copy);
+                }
+            }
+        }
+
+        @Override
+        public void sendEmpty(int status) throws IOException {
+            // Without a body the exchange ends inside sendResponseHeaders, and
+            // HttpServer closes the connection if the request is not read to
+            // the end by then (e.g. every 304 would drop the keep-alive)
+            exchange.getRequestBody().close();
+            exchange.sendResponseHeaders(status, -1);
+        }
+
+        @Override
+        public OutputStream stream(int status) throws IOException {
+            exchange.sendResponseHeaders(status, 0);
+            return exchange.getResponseBody();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package optional;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conflates purchase-driven WebSocket traffic into fixed-rate ticks.
+ *
+ * Purchases only bump counters here, under a lock held for a few field
+ * updates, so a tick always reports whole purchases. Each tick (default
+ * 4 Hz, set with -Dlottery.ws.tickHz) publishes at most one TICKET_PURCHASED digest, one
+ * TICKET_COUNT, one LIVE_STATS and one admin event carrying the latest
+ * values, so WebSocket traffic stays flat however fast tickets sell.
+ * Ticks with no purchases publish nothing.
+ *
+ * Until start() is called, purchases are published immediately, one by one.
+ */
+public final class LiveStatsTicker {
+    public static final String TICK_HZ_PROPERTY = "lottery.ws.tickHz";
+    public static final int DEFAULT_TICK_HZ = 4;
+    // Buyer names listed per digest; the rest are only counted
+    private static final int MAX_DIGEST_BUYERS = 10;
+
+    // Guards the tick's counters, so a tick never sees half of a purchase
+    private static final Object lock = new Object();
+    private static int purchases;
+    private static long ticketsSold;
+    private static int firstTicketId = Integer.MAX_VALUE;
+    private static int lastTicketId = Integer.MIN_VALUE;
+    private static int latestTotal;
+    private static long latestJackpotCents;
+    private static final Set<String> buyers = new LinkedHashSet<>();
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private LiveStatsTicker() {
+    }
+
+    public static synchronized void start(int hz) {
+        if (scheduler != null) return;
+        long periodMicros = TimeUnit.SECONDS.toMicros(1) / Math.max(1, hz);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-stats-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(LiveStatsTicker::tick, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+        System.out.println("📈 Live stats ticker running at " + hz + " Hz");
+    }
+
+    public static synchronized void stop() {
+        if (scheduler == null) return;
+        scheduler.shutdown();
+        scheduler = null;
+        tick(); // publish anything still pending
+    }
+
+    /**
+     * Record a purchase of count tickets (ids firstId..lastId); totalTickets and
+     * jackpot are the values right after it.
+     */
+    public static void recordPurchase(String username, int count, int firstId, int lastId,
+                                      int totalTickets, double jackpot) {
+        synchronized (lock) {
+            purchases++;
+            ticketsSold += count;
+            firstTicketId = Math.min(firstTicketId, firstId);
+            lastTicketId = Math.max(lastTicketId, lastId);
+            latestTotal = Math.max(latestTotal, totalTickets);
+            latestJackpotCents = Math.max(latestJackpotCents, Math.round(jackpot * 100));
+            if (buyers.size() < MAX_DIGEST_BUYERS) {
+                buyers.add(username);
+            }
+        }
+
+        if (scheduler == null) {
+            tick();
+        }
+    }
+
+    private static void tick() {
+        int tickPurchases;
+        long tickTickets;
+        int first;
+        int last;
+        int total;
+        double jackpot;
+        List<String> tickBuyers;
+        // Take the whole tick at once; broadcasting happens outside the lock
+        synchronized (lock) {
+            if (purchases == 0) return;
+            tickPurchases = purchases;
+            tickTickets = ticketsSold;
+            first = firstTicketId;
+            last = lastTicketId;
+            total = latestTotal;
+            jackpot = latestJackpotCents / 100.0;
+            tickBuyers = new ArrayList<>(buyers);
+            purchases = 0;
+            ticketsSold = 0;
+            firstTicketId = Integer.MAX_VALUE;
+            lastTicketId = Integer.MIN_VALUE;
+            buyers.clear();
+        }
+        try {
+            WebSocketServer.broadcastPurchaseDigest(tickBuyers, tickPurchases, tickTickets, first, last);
+            WebSocketServer.broadcastTicketCount(total);
+            WebSocketServer.broadcastLiveStats(total, jackpot);
+            WebSocketServer.broadcastToAdmins("TICKET_PURCHASE",
+                String.format("%d tickets sold in %d purchases (#%d-#%d)", tickTickets, tickPurchases, first, last));
+        } catch (Exception e) {
+            System.err.println("Live stats tick failed: " + e.getMessage());
+        }
+    }
+}
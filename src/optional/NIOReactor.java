@@ -0,0 +1,428 @@
+package optional;
+
+import protocol.BinaryCodec;
+import protocol.ByteSink;
+import protocol.Request;
+import protocol.RequestCodec;
+import protocol.Response;
+import protocol.ResponseCodec;
+import server.RequestProcessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker reactor for NIOServer: owns one Selector and serves the line-delimited
+ * JSON protocol (or BinaryCodec framing) for every connection the acceptor hands
+ * to it. Each connection keeps its own read buffer (for partial requests) and
+ * write buffer (for partial writes); requests are decoded in place by the
+ * protocol codecs.
+ *
+ * Requests are processed on the executor, never on the selector thread:
+ * mutations wait for their ledger batch to become durable, and doing that
+ * here would stall every connection on the reactor and keep one commit in
+ * flight at a time. Each connection's requests run in order on one task at
+ * a time; the encoded responses come back through a completion queue and a
+ * selector wakeup, so pipelined responses keep their order.
+ */
+class NIOReactor implements Runnable {
+    private static final int INITIAL_READ_BUFFER = 4096;
+    private static final int INITIAL_WRITE_BUFFER = 4096;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    // Stop reading from a client that does not drain its responses
+    private static final int MAX_PENDING_WRITE_BYTES = 256 * 1024;
+    // Stop reading from a client with this many requests still being processed
+    private static final int MAX_IN_FLIGHT_REQUESTS = 1024;
+    // Queued in place of a request that could not be decoded, to keep responses in order
+    private static final Request MALFORMED = new Request(null);
+
+    private final int id;
+    private final RequestProcessor requestProcessor;
+    private final Executor executor;
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    // Responses encoded by workers, waiting to be appended to their connection
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    // Per-reactor counters so connection balance can be observed
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong requestsHandled = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    NIOReactor(int id, RequestProcessor requestProcessor, Executor executor) throws IOException {
+        this.id = id;
+        this.requestProcessor = requestProcessor;
+        this.executor = executor;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Called from the acceptor thread; the channel is registered on this reactor's own thread.
+     */
+    void assign(SocketChannel channel) {
+        activeConnections.incrementAndGet();
+        acceptedConnections.incrementAndGet();
+        pendingRegistrations.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                registerPending();
+                drainCompletions();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            readData(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            writeData(key);
+                        }
+                    } catch (IOException e) {
+                        closeConnection(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                System.err.println("NIO reactor " + id + " stopped: " + e.getMessage());
+            }
+        }
+    }
+
+    void stop() {
+        running = false;
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("Error stopping NIO reactor " + id + ": " + e.getMessage());
+        }
+    }
+
+    int getId() { return id; }
+    int getActiveConnections() { return activeConnections.get(); }
+    long getAcceptedConnections() { return acceptedConnections.get(); }
+    long getRequestsHandled() { return requestsHandled.get(); }
+    long getBytesRead() { return bytesRead.get(); }
+    long getBytesWritten() { return bytesWritten.get(); }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pendingRegistrations.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                Connection connection = new Connection(this);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                activeConnections.decrementAndGet();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void readData(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        int read = channel.read(connection.readBuffer);
+        if (read == -1) {
+            closeConnection(key);
+            return;
+        }
+        bytesRead.addAndGet(read);
+
+        if (!connection.negotiated) {
+            negotiate(connection);
+        }
+        if (connection.binary) {
+            processFrames(connection);
+        } else {
+            processLines(connection);
+        }
+
+        if (!connection.readBuffer.hasRemaining()) {
+            if (!connection.growReadBuffer()) {
+                // A single request line larger than MAX_LINE_LENGTH
+                closeConnection(key);
+                return;
+            }
+        }
+
+        if (connection.writeBuffer.position() > 0) {
+            writeData(key);
+        } else {
+            updateInterest(key, connection);
+        }
+    }
+
+    /**
+     * The first byte picks the protocol: BinaryCodec.HANDSHAKE selects binary
+     * framing (acknowledged with the same byte), anything else stays on JSON lines.
+     */
+    private void negotiate(Connection connection) {
+        ByteBuffer buffer = connection.readBuffer;
+        if (buffer.position() == 0) return;
+        connection.negotiated = true;
+        if ((buffer.get(0) & 0xFF) == BinaryCodec.HANDSHAKE) {
+            connection.binary = true;
+            buffer.flip();
+            buffer.get();
+            buffer.compact();
+            connection.enqueue(new byte[] {(byte) BinaryCodec.HANDSHAKE});
+        }
+    }
+
+    /**
+     * Handle every complete binary frame in the read buffer and keep the trailing partial frame.
+     */
+    private void processFrames(Connection connection) throws IOException {
+        ByteBuffer buffer = connection.readBuffer;
+        buffer.flip();
+        byte[] data = buffer.array();
+        int start = buffer.position();
+        int limit = buffer.limit();
+
+        while (start < limit) {
+            int frameLength;
+            try {
+                frameLength = BinaryCodec.frameLength(data, start, limit - start);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad binary frame", e);
+            }
+            if (frameLength < 0) break;
+
+            int prefix = BinaryCodec.headerLength(data, start);
+            Request request;
+            try {
+                request = BinaryCodec.decodeRequest(data, start + prefix, frameLength - prefix);
+            } catch (IllegalArgumentException e) {
+                request = MALFORMED;
+            }
+            connection.submit(request);
+            start += frameLength;
+        }
+
+        buffer.position(start);
+        buffer.compact();
+    }
+
+    /**
+     * Handle every complete line in the read buffer and keep the trailing partial line.
+     */
+    private void processLines(Connection connection) {
+        ByteBuffer buffer = connection.readBuffer;
+        buffer.flip();
+        byte[] data = buffer.array();
+        int lineStart = buffer.position();
+        int limit = buffer.limit();
+
+        for (int i = lineStart; i < limit; i++) {
+            if (data[i] == '\n') {
+                int lineEnd = i;
+                if (lineEnd > lineStart && data[lineEnd - 1] == '\r') lineEnd--;
+                if (lineEnd > lineStart) {
+                    Request request;
+                    try {
+                        request = RequestCodec.decode(data, lineStart, lineEnd - lineStart);
+                    } catch (IllegalArgumentException e) {
+                        request = MALFORMED;
+                    }
+                    connection.submit(request);
+                }
+                lineStart = i + 1;
+            }
+        }
+
+        buffer.position(lineStart);
+        buffer.compact();
+    }
+
+    /**
+     * Worker side: answer every queued request of one connection in order and
+     * hand the encoded responses to the reactor as one completion.
+     */
+    private void runRequests(Connection connection) {
+        ByteSink responses = new ByteSink(256);
+        do {
+            int count = 0;
+            Request request;
+            while ((request = connection.inbox.poll()) != null) {
+                Response response;
+                try {
+                    response = request == MALFORMED
+                            ? new Response("error", "Malformed request")
+                            : requestProcessor.process(request);
+                } catch (RuntimeException e) {
+                    response = new Response("error", "Request failed: " + e.getMessage());
+                }
+                if (connection.binary) {
+                    BinaryCodec.encodeResponse(response, responses);
+                } else {
+                    ResponseCodec.encode(response, responses);
+                    responses.writeByte('\n');
+                }
+                count++;
+            }
+            if (count > 0) {
+                requestsHandled.addAndGet(count);
+                completions.add(new Completion(connection, responses.toByteArray(), count));
+                responses.reset();
+                selector.wakeup();
+            }
+            connection.scheduled.set(false);
+            // A request queued after the last poll but before the flag was cleared
+        } while (!connection.inbox.isEmpty() && connection.scheduled.compareAndSet(false, true));
+    }
+
+    private void drainCompletions() {
+        Completion completion;
+        while ((completion = completions.poll()) != null) {
+            Connection connection = completion.connection;
+            SelectionKey key = connection.key;
+            if (key == null || !key.isValid()) continue;
+            connection.inFlight -= completion.requests;
+            connection.enqueue(completion.responses);
+            try {
+                writeData(key);
+            } catch (IOException e) {
+                closeConnection(key);
+            }
+        }
+    }
+
+    /**
+     * Read while the client keeps up with its responses and has not too many
+     * requests outstanding; write while responses are pending.
+     */
+    private void updateInterest(SelectionKey key, Connection connection) {
+        int pending = connection.writeBuffer.position();
+        int ops = pending > 0 ? SelectionKey.OP_WRITE : 0;
+        if (pending <= MAX_PENDING_WRITE_BYTES && connection.inFlight < MAX_IN_FLIGHT_REQUESTS) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    private void writeData(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.writeBuffer;
+
+        buffer.flip();
+        bytesWritten.addAndGet(channel.write(buffer));
+        buffer.compact();
+
+        // Anything left waits for OP_WRITE (socket send buffer full)
+        updateInterest(key, connection);
+    }
+
+    private void closeConnection(SelectionKey key) {
+        if (!key.channel().isOpen()) return;
+        key.cancel();
+        activeConnections.decrementAndGet();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.err.println("Error closing NIO client: " + e.getMessage());
+        }
+    }
+
+    private static final class Completion {
+        final Connection connection;
+        final byte[] responses;
+        final int requests;
+
+        Completion(Connection connection, byte[] responses, int requests) {
+            this.connection = connection;
+            this.responses = responses;
+            this.requests = requests;
+        }
+    }
+
+    /**
+     * Per-connection state attached to the selection key. Buffers and inFlight
+     * belong to the reactor thread; inbox and scheduled are shared with workers.
+     */
+    private static class Connection {
+        final NIOReactor reactor;
+        SelectionKey key;
+        final Queue<Request> inbox = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        int inFlight;
+        ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        // Pending response bytes, kept in write mode between selector passes
+        ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_WRITE_BUFFER);
+        boolean negotiated;
+        // Set once during negotiation, before any request is submitted
+        volatile boolean binary;
+
+        Connection(NIOReactor reactor) {
+            this.reactor = reactor;
+        }
+
+        /** Queue a decoded request and make sure a worker is on this connection. */
+        void submit(Request request) {
+            inFlight++;
+            inbox.add(request);
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    reactor.executor.execute(() -> reactor.runRequests(this));
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false); // shutting down
+                }
+            }
+        }
+
+        void enqueue(byte[] response) {
+            if (writeBuffer.remaining() < response.length) {
+                int capacity = Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + response.length);
+                ByteBuffer larger = ByteBuffer.allocate(capacity);
+                writeBuffer.flip();
+                larger.put(writeBuffer);
+                writeBuffer = larger;
+            }
+            writeBuffer.put(response);
+        }
+
+        boolean growReadBuffer() {
+            if (readBuffer.capacity() >= MAX_LINE_LENGTH) return false;
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_LINE_LENGTH));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+            return true;
+        }
+    }
+}
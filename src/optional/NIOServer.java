@@ -1,75 +1,147 @@
 package optional;
 
+import server.DataManager;
+import server.ExecutionMode;
+import server.RequestProcessor;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
+/**
+ * Multi-reactor TCP front-end speaking the same line-delimited JSON protocol
+ * as server.ClientHandler. One acceptor thread hands accepted channels to N
+ * worker reactors (one Selector each, sized to the available cores by default),
+ * so a single process can hold many clients without one thread per socket.
+ * Requests themselves run on an executor from the execution mode, since they
+ * may wait for the ledger.
+ */
 public class NIOServer {
-    private Selector selector;
+    /**
+     * How the acceptor picks a worker reactor for a new connection.
+     */
+    public enum Balancing { ROUND_ROBIN, LEAST_LOADED }
+
+    private final RequestProcessor requestProcessor;
+    private final int reactorCount;
+    private final Balancing balancing;
+    private final ExecutionMode executionMode;
+    private final int poolSize;
+    private ExecutorService executor;
+    private final List<NIOReactor> reactors = new ArrayList<>();
     private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    private int nextReactor;
+
+    public NIOServer(DataManager dataManager) {
+        this(dataManager, Runtime.getRuntime().availableProcessors(), Balancing.LEAST_LOADED);
+    }
+
+    public NIOServer(DataManager dataManager, int reactorCount, Balancing balancing) {
+        this(dataManager, reactorCount, balancing,
+                ExecutionMode.fromSystemProperties(), ExecutionMode.poolSizeFromSystemProperties());
+    }
+
+    public NIOServer(DataManager dataManager, int reactorCount, Balancing balancing,
+                     ExecutionMode executionMode, int poolSize) {
+        this.requestProcessor = new RequestProcessor(dataManager);
+        this.reactorCount = Math.max(1, reactorCount);
+        this.balancing = balancing;
+        this.executionMode = executionMode;
+        this.poolSize = poolSize;
+    }
 
     public void start(int port) throws IOException {
-        selector = Selector.open();
+        executor = executionMode.newExecutor("nio-request", poolSize);
+        for (int i = 0; i < reactorCount; i++) {
+            NIOReactor reactor = new NIOReactor(i, requestProcessor, executor);
+            reactors.add(reactor);
+            Thread thread = new Thread(reactor, "nio-reactor-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // The acceptor blocks in accept(); only the workers need selectors
         serverChannel = ServerSocketChannel.open();
         serverChannel.bind(new InetSocketAddress(port));
-        serverChannel.configureBlocking(false);
-        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
 
-        System.out.println("NIO Server started on port " + port);
+        System.out.println("NIO Server started on port " + port + " with " + reactorCount
+                + " reactors (" + balancing + ")");
 
-        while (true) {
-            selector.select();
-            Set<SelectionKey> keys = selector.selectedKeys();
-            Iterator<SelectionKey> it = keys.iterator();
+        try {
+            while (running) {
+                SocketChannel clientChannel = serverChannel.accept();
+                selectReactor().assign(clientChannel);
+            }
+        } catch (AsynchronousCloseException e) {
+            // stop() closed the server channel
+        }
+    }
 
-            while (it.hasNext()) {
-                SelectionKey key = it.next();
-                it.remove();
+    public void stop() throws IOException {
+        running = false;
+        if (serverChannel != null) serverChannel.close();
+        for (NIOReactor reactor : reactors) {
+            reactor.stop();
+        }
+        if (executor != null) executor.shutdown();
+        System.out.println(getReactorStats());
+    }
 
-                if (key.isAcceptable()) {
-                    acceptConnection();
-                } else if (key.isReadable()) {
-                    readData(key);
+    private NIOReactor selectReactor() {
+        if (balancing == Balancing.LEAST_LOADED) {
+            // Scan from the round-robin cursor so ties still rotate
+            NIOReactor best = null;
+            for (int i = 0; i < reactors.size(); i++) {
+                NIOReactor candidate = reactors.get((nextReactor + i) % reactors.size());
+                if (best == null || candidate.getActiveConnections() < best.getActiveConnections()) {
+                    best = candidate;
                 }
             }
+            nextReactor = (best.getId() + 1) % reactors.size();
+            return best;
         }
+        NIOReactor reactor = reactors.get(nextReactor);
+        nextReactor = (nextReactor + 1) % reactors.size();
+        return reactor;
     }
 
-    private void acceptConnection() throws IOException {
-        SocketChannel clientChannel = serverChannel.accept();
-        clientChannel.configureBlocking(false);
-        clientChannel.register(selector, SelectionKey.OP_READ);
-        System.out.println("NIO Client connected");
+    /**
+     * Per-reactor counters, one line per reactor, to check connection balance.
+     */
+    public String getReactorStats() {
+        StringBuilder sb = new StringBuilder("NIO reactor stats:");
+        for (NIOReactor reactor : reactors) {
+            sb.append("\n  reactor-").append(reactor.getId())
+              .append(" active=").append(reactor.getActiveConnections())
+              .append(" accepted=").append(reactor.getAcceptedConnections())
+              .append(" requests=").append(reactor.getRequestsHandled())
+              .append(" bytesRead=").append(reactor.getBytesRead())
+              .append(" bytesWritten=").append(reactor.getBytesWritten());
+        }
+        return sb.toString();
     }
 
-    private void readData(SelectionKey key) throws IOException {
-        SocketChannel channel = (SocketChannel) key.channel();
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        int bytesRead = channel.read(buffer);
-
-        if (bytesRead == -1) {
-            channel.close();
-            return;
+    public int getActiveConnections() {
+        int active = 0;
+        for (NIOReactor reactor : reactors) {
+            active += reactor.getActiveConnections();
         }
+        return active;
+    }
 
-        buffer.flip();
-        String message = new String(buffer.array(), 0, bytesRead).trim();
-        System.out.println("Received: " + message);
-
-        // Echo response for demo
-        String response = "{\"status\":\"success\",\"message\":\"NIO response\"}";
-        ByteBuffer responseBuffer = ByteBuffer.wrap(response.getBytes());
-        channel.write(responseBuffer);
+    public int getReactorCount() {
+        return reactorCount;
     }
 
     public static void main(String[] args) throws IOException {
-        NIOServer server = new NIOServer();
+        NIOServer server = new NIOServer(new DataManager());
         server.start(5001);
     }
 }
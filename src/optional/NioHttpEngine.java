@@ -0,0 +1,876 @@
+package optional;
+
+import protocol.ByteSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking HTTP/1.1 engine. An acceptor thread hands connections to
+ * reactor threads (one Selector each, -Dlottery.http.reactors, default one
+ * per core) which do all socket I/O and request parsing; routes run on the
+ * module's executor, so a route waiting on the ledger never stalls a reactor.
+ *
+ * - Keep-alive: HTTP/1.1 connections stay open unless the client says
+ *   "Connection: close"; idle ones are closed after
+ *   -Dlottery.http.idleTimeoutSeconds (default 30). Pipelined requests are
+ *   answered in order, one at a time.
+ * - Reads go into pooled direct buffers that a connection only holds while it
+ *   has unparsed input, so idle keep-alive connections cost no buffer.
+ * - Routes are looked up in an exact-match table.
+ * - A response is written with one gathering write of its header and the
+ *   route's own body buffer, without copying the body into another buffer.
+ * - Streams use chunked encoding and block the route while more than
+ *   MAX_PENDING_WRITE_BYTES are waiting for a slow client.
+ */
+class NioHttpEngine implements HttpEngine {
+    static final String REACTORS_PROPERTY = "lottery.http.reactors";
+    static final String IDLE_TIMEOUT_PROPERTY = "lottery.http.idleTimeoutSeconds";
+    static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 30;
+
+    // Read buffer size, which is also the largest accepted request head
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+    private static final int MAX_PENDING_WRITE_BYTES = 256 * 1024;
+    private static final int STREAM_CHUNK_BYTES = 8 * 1024;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private final BufferPool buffers = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final List<Reactor> reactors = new ArrayList<>();
+    private final long idleTimeoutMillis;
+    private Map<String, HttpRoute> routes;
+    private ExecutorService executor;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    private final AtomicLong requestsHandled = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    // Date header, re-rendered at most once a second
+    private volatile long dateSecond = -1;
+    private volatile byte[] dateHeader;
+
+    NioHttpEngine() {
+        this.idleTimeoutMillis = Integer.getInteger(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_SECONDS) * 1000L;
+    }
+
+    @Override
+    public void start(int port, Map<String, HttpRoute> routes, ExecutorService executor) throws IOException {
+        this.routes = new HashMap<>(routes);
+        this.executor = executor;
+        running = true;
+        int reactorCount = Math.max(1, Integer.getInteger(REACTORS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        for (int i = 0; i < reactorCount; i++) {
+            Reactor reactor = new Reactor(i);
+            reactors.add(reactor);
+            Thread thread = new Thread(reactor, "http-reactor-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        Thread acceptor = new Thread(this::acceptLoop, "http-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("NIO HTTP engine: " + reactorCount + " reactors, keep-alive "
+                + idleTimeoutMillis / 1000 + "s");
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        try {
+            while (running) {
+                SocketChannel channel = serverChannel.accept();
+                reactors.get(next).assign(channel);
+                next = (next + 1) % reactors.size();
+            }
+        } catch (AsynchronousCloseException e) {
+            // stop() closed the server channel
+        } catch (IOException e) {
+            if (running) System.err.println("HTTP acceptor stopped: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing HTTP server channel: " + e.getMessage());
+        }
+        for (Reactor reactor : reactors) {
+            reactor.stop();
+        }
+        System.out.println(getStats());
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return activeConnections.get();
+    }
+
+    String getStats() {
+        return String.format("NIO HTTP engine: %d requests, %d active connections, %d bytes read, %d bytes written, "
+                        + "%d/%d read buffers pooled",
+                requestsHandled.get(), activeConnections.get(), bytesRead.get(), bytesWritten.get(),
+                buffers.getPooledCount(), buffers.getAllocatedCount());
+    }
+
+    private byte[] dateHeader() {
+        long second = System.currentTimeMillis() / 1000;
+        byte[] header = dateHeader;
+        if (second != dateSecond || header == null) {
+            String date = DATE_FORMAT.format(ZonedDateTime.now(ZoneOffset.UTC));
+            header = ("Date: " + date + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            dateHeader = header;
+            dateSecond = second;
+        }
+        return header;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            case 505: return "HTTP Version Not Supported";
+            default: return "Status " + status;
+        }
+    }
+
+    private static boolean hasToken(String headerValue, String token) {
+        if (headerValue == null) return false;
+        for (String part : headerValue.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) return true;
+        }
+        return false;
+    }
+
+    private static byte[] errorBody(String message) {
+        return ("{\"success\":false,\"message\":\"" + message + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One Selector and the connections assigned to it. Everything but the
+     * write queue is touched only by the reactor thread.
+     */
+    private class Reactor implements Runnable {
+        private final int id;
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingFlushes = new ConcurrentLinkedQueue<>();
+        private long lastSweep = System.currentTimeMillis();
+
+        Reactor(int id) throws IOException {
+            this.id = id;
+            this.selector = Selector.open();
+        }
+
+        void assign(SocketChannel channel) {
+            activeConnections.incrementAndGet();
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        void scheduleFlush(Connection connection) {
+            pendingFlushes.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(1000);
+                    registerPending();
+                    Connection flushing;
+                    while ((flushing = pendingFlushes.poll()) != null) {
+                        flush(flushing);
+                    }
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) continue;
+                        if (key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable()) flush(connection);
+                    }
+                    selector.selectedKeys().clear();
+                    sweepIdle();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) System.err.println("HTTP reactor " + id + " stopped: " + e.getMessage());
+            }
+        }
+
+        void stop() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    Object attachment = key.attachment();
+                    if (attachment instanceof Connection) ((Connection) attachment).markClosed();
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException | ClosedSelectorException e) {
+                System.err.println("Error stopping HTTP reactor " + id + ": " + e.getMessage());
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    activeConnections.decrementAndGet();
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void sweepIdle() {
+            long now = System.currentTimeMillis();
+            if (now - lastSweep < 1000) return;
+            lastSweep = now;
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && !connection.inFlight && now - connection.lastActive > idleTimeoutMillis) {
+                    close(connection);
+                }
+            }
+        }
+
+        private void read(Connection connection) {
+            if (connection.readBuffer == null) {
+                connection.readBuffer = buffers.acquire();
+            }
+            int read;
+            try {
+                read = connection.channel.read(connection.readBuffer);
+            } catch (IOException e) {
+                close(connection);
+                return;
+            }
+            if (read == -1) {
+                close(connection);
+                return;
+            }
+            bytesRead.addAndGet(read);
+            connection.lastActive = System.currentTimeMillis();
+            parse(connection);
+        }
+
+        /**
+         * Dispatch the next complete request in the read buffer, if there is one
+         * and no earlier request on this connection is still being answered.
+         */
+        private void parse(Connection connection) {
+            ByteBuffer buffer = connection.readBuffer;
+            if (connection.inFlight || buffer == null || !connection.key.isValid()) return;
+
+            if (connection.head == null) {
+                int filled = buffer.position();
+                int end = -1;
+                for (int i = Math.max(0, connection.scanned - 3); i + 3 < filled; i++) {
+                    if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n'
+                            && buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n') {
+                        end = i;
+                        break;
+                    }
+                }
+                if (end < 0) {
+                    connection.scanned = filled;
+                    if (!buffer.hasRemaining()) reject(connection, 431, "Request header too large");
+                    else releaseIfEmpty(connection);
+                    return;
+                }
+                if (!parseHead(connection, end)) return;
+            }
+
+            RequestHead head = connection.head;
+            int total = head.bodyOffset + head.contentLength;
+            if (buffer.position() < total) {
+                if (total > buffer.capacity()) {
+                    // Body does not fit a pooled buffer: move to a one-off heap buffer
+                    ByteBuffer larger = ByteBuffer.allocate(total);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffers.release(buffer);
+                    connection.readBuffer = larger;
+                }
+                if (head.expectContinue && !connection.continueSent) {
+                    connection.continueSent = true;
+                    connection.enqueue(new ByteBuffer[] {ByteBuffer.wrap(CONTINUE)}, false, false);
+                    flush(connection);
+                }
+                return;
+            }
+
+            byte[] body = new byte[head.contentLength];
+            ByteBuffer view = connection.readBuffer.duplicate();
+            view.position(head.bodyOffset).limit(total);
+            view.get(body);
+            consume(connection, total);
+
+            connection.head = null;
+            connection.scanned = 0;
+            connection.continueSent = false;
+            connection.inFlight = true;
+            connection.key.interestOps(0);
+            requestsHandled.incrementAndGet();
+
+            NioCall call = new NioCall(connection, head, body);
+            try {
+                executor.execute(() -> runRoute(call));
+            } catch (RejectedExecutionException e) {
+                close(connection);
+            }
+        }
+
+        private boolean parseHead(Connection connection, int end) {
+            byte[] bytes = new byte[end];
+            ByteBuffer view = connection.readBuffer.duplicate();
+            view.position(0).limit(end);
+            view.get(bytes);
+            String[] lines = new String(bytes, StandardCharsets.ISO_8859_1).split("\r\n");
+
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                reject(connection, 400, "Malformed request line");
+                return false;
+            }
+            RequestHead head = new RequestHead();
+            head.method = requestLine[0];
+            head.version = requestLine[2];
+            if (!head.version.equals("HTTP/1.1") && !head.version.equals("HTTP/1.0")) {
+                reject(connection, 505, "Unsupported HTTP version");
+                return false;
+            }
+            String target = requestLine[1];
+            int question = target.indexOf('?');
+            head.path = question >= 0 ? target.substring(0, question) : target;
+            head.query = question >= 0 ? target.substring(question + 1) : null;
+
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    reject(connection, 400, "Malformed header");
+                    return false;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                head.headers.merge(name, value, (a, b) -> a + ", " + b);
+            }
+
+            if (head.headers.containsKey("transfer-encoding")) {
+                reject(connection, 411, "Chunked request bodies are not supported");
+                return false;
+            }
+            String length = head.headers.get("content-length");
+            if (length != null) {
+                try {
+                    head.contentLength = Integer.parseInt(length);
+                } catch (NumberFormatException e) {
+                    head.contentLength = -1;
+                }
+                if (head.contentLength < 0) {
+                    reject(connection, 400, "Bad Content-Length");
+                    return false;
+                }
+                if (head.contentLength > MAX_BODY_BYTES) {
+                    reject(connection, 413, "Request body too large");
+                    return false;
+                }
+            }
+            String connectionHeader = head.headers.get("connection");
+            head.http11 = head.version.equals("HTTP/1.1");
+            head.keepAlive = head.http11 ? !hasToken(connectionHeader, "close") : hasToken(connectionHeader, "keep-alive");
+            head.expectContinue = "100-continue".equalsIgnoreCase(head.headers.get("expect"));
+            head.bodyOffset = end + 4;
+            connection.head = head;
+            return true;
+        }
+
+        private void consume(Connection connection, int count) {
+            ByteBuffer buffer = connection.readBuffer;
+            buffer.flip();
+            buffer.position(count);
+            buffer.compact();
+            releaseIfEmpty(connection);
+        }
+
+        private void releaseIfEmpty(Connection connection) {
+            if (connection.readBuffer != null && connection.readBuffer.position() == 0) {
+                buffers.release(connection.readBuffer);
+                connection.readBuffer = null;
+            }
+        }
+
+        /** Answer a request we could not parse, then close. */
+        private void reject(Connection connection, int status, String message) {
+            connection.inFlight = true;
+            connection.key.interestOps(0);
+            if (connection.readBuffer != null) {
+                buffers.release(connection.readBuffer);
+                connection.readBuffer = null;
+            }
+            byte[] body = errorBody(message);
+            ByteSink header = new ByteSink(160);
+            header.writeAscii("HTTP/1.1 ").writeInt(status).writeByte(' ').writeAscii(reason(status)).writeBytes(CRLF)
+                    .writeBytes(dateHeader())
+                    .writeAscii("Content-Type: application/json\r\nConnection: close\r\nContent-Length: ")
+                    .writeInt(body.length).writeBytes(CRLF).writeBytes(CRLF);
+            connection.enqueue(new ByteBuffer[] {ByteBuffer.wrap(header.toByteArray()), ByteBuffer.wrap(body)}, true, true);
+            flush(connection);
+        }
+
+        private void flush(Connection connection) {
+            if (!connection.key.isValid()) return;
+            ByteBuffer[] pending;
+            synchronized (connection) {
+                connection.flushQueued = false;
+                pending = connection.writes.toArray(new ByteBuffer[0]);
+            }
+            long written = 0;
+            if (pending.length > 0) {
+                try {
+                    written = connection.channel.write(pending);
+                } catch (IOException e) {
+                    close(connection);
+                    return;
+                }
+                bytesWritten.addAndGet(written);
+            }
+
+            boolean remaining;
+            boolean done;
+            boolean closeAfter;
+            synchronized (connection) {
+                while (!connection.writes.isEmpty() && !connection.writes.peekFirst().hasRemaining()) {
+                    connection.writes.pollFirst();
+                }
+                connection.pendingBytes -= written;
+                connection.notifyAll();
+                remaining = !connection.writes.isEmpty();
+                done = connection.responseDone && !remaining;
+                if (done) connection.responseDone = false;
+                closeAfter = connection.closeAfterResponse;
+            }
+
+            if (done) {
+                if (closeAfter) {
+                    close(connection);
+                    return;
+                }
+                connection.inFlight = false;
+                connection.lastActive = System.currentTimeMillis();
+            }
+            int ops = (connection.inFlight ? 0 : SelectionKey.OP_READ) | (remaining ? SelectionKey.OP_WRITE : 0);
+            connection.key.interestOps(ops);
+            if (done) parse(connection); // a pipelined request may already be buffered
+        }
+
+        private void close(Connection connection) {
+            if (!connection.channel.isOpen()) return;
+            connection.key.cancel();
+            activeConnections.decrementAndGet();
+            connection.markClosed();
+            if (connection.readBuffer != null) {
+                buffers.release(connection.readBuffer);
+                connection.readBuffer = null;
+            }
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing HTTP client: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runRoute(NioCall call) {
+        try {
+            HttpRoute route = routes.get(call.head.path);
+            if (route == null) {
+                call.setHeader("Content-Type", "application/json");
+                call.send(404, errorBody("Not found"));
+                return;
+            }
+            route.handle(call);
+            if (!call.committed) {
+                call.setHeader("Content-Type", "application/json");
+                call.send(500, errorBody("No response"));
+            } else if (call.stream != null) {
+                call.stream.close();
+            }
+        } catch (Exception e) {
+            if (!call.committed) {
+                try {
+                    call.setHeader("Content-Type", "application/json");
+                    call.send(500, errorBody("Internal error"));
+                    return;
+                } catch (IOException ignored) {
+                    // connection already gone
+                }
+            }
+            // Part of the response is out; all we can do is drop the connection
+            call.connection.enqueue(new ByteBuffer[0], true, true);
+        }
+    }
+
+    private static class RequestHead {
+        String method;
+        String path;
+        String query;
+        String version;
+        final Map<String, String> headers = new HashMap<>();
+        int contentLength;
+        int bodyOffset;
+        boolean http11;
+        boolean keepAlive;
+        boolean expectContinue;
+    }
+
+    /**
+     * Per-connection state. The write queue is shared between the route's
+     * thread (producer) and the reactor (consumer) under the connection's lock.
+     */
+    private static class Connection {
+        final Reactor reactor;
+        final SocketChannel channel;
+        SelectionKey key;
+
+        // Reactor thread only
+        ByteBuffer readBuffer;
+        RequestHead head;
+        int scanned;
+        boolean continueSent;
+        boolean inFlight;
+        long lastActive = System.currentTimeMillis();
+
+        // Guarded by this
+        final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+        long pendingBytes;
+        boolean responseDone;
+        boolean closeAfterResponse;
+        boolean flushQueued;
+        boolean closed;
+
+        Connection(Reactor reactor, SocketChannel channel) {
+            this.reactor = reactor;
+            this.channel = channel;
+        }
+
+        /**
+         * Queue response bytes; last marks the end of the current response.
+         */
+        void enqueue(ByteBuffer[] data, boolean last, boolean closeAfter) {
+            boolean schedule;
+            synchronized (this) {
+                if (closed) return;
+                for (ByteBuffer buffer : data) {
+                    writes.addLast(buffer);
+                    pendingBytes += buffer.remaining();
+                }
+                if (last) responseDone = true;
+                closeAfterResponse |= closeAfter;
+                schedule = !flushQueued;
+                flushQueued = true;
+            }
+            if (schedule) reactor.scheduleFlush(this);
+        }
+
+        /**
+         * Block the calling route while the client is more than limit bytes behind.
+         */
+        synchronized void awaitDrained(long limit) throws IOException {
+            while (!closed && pendingBytes > limit) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while streaming");
+                }
+            }
+            if (closed) throw new IOException("Connection closed");
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized long getPendingBytes() {
+            return pendingBytes;
+        }
+
+        synchronized void markClosed() {
+            closed = true;
+            writes.clear();
+            pendingBytes = 0;
+            notifyAll();
+        }
+    }
+
+    private class NioCall implements HttpCall {
+        final Connection connection;
+        final RequestHead head;
+        final byte[] body;
+        final Map<String, String> responseHeaders = new LinkedHashMap<>();
+        boolean committed;
+        ChunkedStream stream;
+
+        NioCall(Connection connection, RequestHead head, byte[] body) {
+            this.connection = connection;
+            this.head = head;
+            this.body = body;
+        }
+
+        @Override public String getMethod() { return head.method; }
+        @Override public String getPath() { return head.path; }
+        @Override public String getQuery() { return head.query; }
+        @Override public byte[] getBody() { return body; }
+
+        @Override
+        public String getRequestHeader(String name) {
+            return head.headers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            responseHeaders.put(name, value);
+        }
+
+        private boolean isHead() {
+            return "HEAD".equals(head.method);
+        }
+
+        private ByteBuffer header(int status, long contentLength, boolean chunked) {
+            if (committed) throw new IllegalStateException("Response already sent");
+            committed = true;
+            ByteSink sink = new ByteSink(256);
+            sink.writeAscii("HTTP/1.1 ").writeInt(status).writeByte(' ').writeAscii(reason(status)).writeBytes(CRLF);
+            sink.writeBytes(dateHeader());
+            for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+                sink.writeAscii(header.getKey()).writeAscii(": ").writeAscii(header.getValue()).writeBytes(CRLF);
+            }
+            if (chunked) {
+                sink.writeAscii("Transfer-Encoding: chunked\r\n");
+            } else if (contentLength >= 0) {
+                sink.writeAscii("Content-Length: ").writeLong(contentLength).writeBytes(CRLF);
+            }
+            if (!head.keepAlive) {
+                sink.writeAscii("Connection: close\r\n");
+            } else if (!head.http11) {
+                sink.writeAscii("Connection: keep-alive\r\n");
+            }
+            sink.writeBytes(CRLF);
+            return ByteBuffer.wrap(sink.array(), 0, sink.size());
+        }
+
+        @Override
+        public void send(int status, ByteBuffer body) throws IOException {
+            ByteBuffer header = header(status, body.remaining(), false);
+            ByteBuffer[] data = isHead() || !body.hasRemaining()
+                    ? new ByteBuffer[] {header}
+                    : new ByteBuffer[] {header, body.duplicate()};
+            if (connection.isClosed()) throw new IOException("Connection closed");
+            connection.enqueue(data, true, !head.keepAlive);
+        }
+
+        @Override
+        public void sendEmpty(int status) throws IOException {
+            boolean noLength = status == 204 || status == 304;
+            ByteBuffer header = header(status, noLength ? -1 : 0, false);
+            if (connection.isClosed()) throw new IOException("Connection closed");
+            connection.enqueue(new ByteBuffer[] {header}, true, !head.keepAlive);
+        }
+
+        @Override
+        public OutputStream stream(int status) throws IOException {
+            if (!head.http11) head.keepAlive = false; // HTTP/1.0: body ends when the connection closes
+            ByteBuffer header = header(status, -1, head.http11 && !isHead());
+            if (connection.isClosed()) throw new IOException("Connection closed");
+            connection.enqueue(new ByteBuffer[] {header}, false, false);
+            stream = new ChunkedStream(this);
+            return stream;
+        }
+
+        @Override
+        public HttpPush push(int status) throws IOException {
+            if (!head.http11) head.keepAlive = false;
+            ByteBuffer header = header(status, -1, head.http11 && !isHead());
+            if (connection.isClosed()) throw new IOException("Connection closed");
+            // HEAD gets the headers only, so that response is already complete
+            connection.enqueue(new ByteBuffer[] {header}, isHead(), !head.keepAlive && isHead());
+            return new NioPush(this);
+        }
+    }
+
+    /**
+     * HttpPush on a connection: every write is queued as one chunk and picked
+     * up by the reactor, so writers never wait on the client.
+     */
+    private static class NioPush implements HttpPush {
+        private final NioCall call;
+        private final boolean chunked;
+        private volatile boolean closed;
+
+        NioPush(NioCall call) {
+            this.call = call;
+            this.chunked = call.head.http11;
+            this.closed = call.isHead();
+        }
+
+        @Override
+        public synchronized boolean write(ByteBuffer data) {
+            if (!isOpen()) return false;
+            if (!data.hasRemaining()) return true;
+            ByteBuffer body = data.duplicate();
+            ByteBuffer[] frame = chunked
+                    ? new ByteBuffer[] {
+                        ByteBuffer.wrap((Integer.toHexString(body.remaining()) + "\r\n").getBytes(StandardCharsets.US_ASCII)),
+                        body, ByteBuffer.wrap(CRLF)}
+                    : new ByteBuffer[] {body};
+            call.connection.enqueue(frame, false, false);
+            return true;
+        }
+
+        @Override
+        public long getPendingBytes() {
+            return call.connection.getPendingBytes();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed && !call.connection.isClosed();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            ByteBuffer[] end = chunked ? new ByteBuffer[] {ByteBuffer.wrap(LAST_CHUNK)} : new ByteBuffer[0];
+            call.connection.enqueue(end, true, !call.head.keepAlive);
+        }
+    }
+
+    /**
+     * Response body of unknown length. Each filled (or flushed) buffer is handed
+     * to the connection as one chunk without copying, and a fresh one started.
+     */
+    private static class ChunkedStream extends OutputStream {
+        private final NioCall call;
+        private final boolean chunked;
+        private final boolean discard;
+        private byte[] buffer = new byte[STREAM_CHUNK_BYTES];
+        private int count;
+        private boolean closed;
+
+        ChunkedStream(NioCall call) {
+            this.call = call;
+            this.chunked = call.head.http11;
+            this.discard = call.isHead();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) emit(false);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            while (length > 0) {
+                if (count == buffer.length) emit(false);
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed && count > 0) emit(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            emit(true);
+            closed = true;
+        }
+
+        private void emit(boolean last) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            List<ByteBuffer> data = new ArrayList<>(4);
+            if (count > 0 && !discard) {
+                if (chunked) {
+                    data.add(ByteBuffer.wrap((Integer.toHexString(count) + "\r\n").getBytes(StandardCharsets.US_ASCII)));
+                    data.add(ByteBuffer.wrap(buffer, 0, count));
+                    data.add(ByteBuffer.wrap(CRLF));
+                } else {
+                    data.add(ByteBuffer.wrap(buffer, 0, count));
+                }
+                buffer = new byte[STREAM_CHUNK_BYTES];
+            }
+            count = 0;
+            if (last && chunked && !discard) {
+                data.add(ByteBuffer.wrap(LAST_CHUNK));
+            }
+            if (data.isEmpty() && !last) return;
+            Connection connection = call.connection;
+            if (connection.isClosed()) throw new IOException("Connection closed");
+            connection.enqueue(data.toArray(new ByteBuffer[0]), last, !call.head.keepAlive);
+            if (!last) connection.awaitDrained(MAX_PENDING_WRITE_BYTES);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package optional;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded outbound queue for one WebSocket session, drained through the async
+ * remote with at most one send in flight. Broadcasting threads only enqueue,
+ * so a slow browser can never hold up a purchase.
+ *
+ * Messages with a conflation key (e.g. TICKET_COUNT) replace any queued
+ * message with the same key, so a lagging client just sees the latest value.
+ * If the queue still overflows the session is evicted (closed), since a
+ * client that far behind is better off reconnecting.
+ */
+class SessionOutbox {
+    static final int DEFAULT_CAPACITY = 256;
+
+    // Aggregate counters across all sessions
+    static final AtomicLong enqueued = new AtomicLong();
+    static final AtomicLong sent = new AtomicLong();
+    static final AtomicLong conflated = new AtomicLong();
+    static final AtomicLong evictions = new AtomicLong();
+    static final AtomicLong sendFailures = new AtomicLong();
+
+    private static final class Outbound {
+        final String key;
+        BroadcastFrame frame;
+
+        Outbound(String key, BroadcastFrame frame) {
+            this.key = key;
+            this.frame = frame;
+        }
+    }
+
+    private final Session session;
+    private final int capacity;
+    private final ArrayDeque<Outbound> queue = new ArrayDeque<>();
+    // Binary sessions get the frame's shared UTF-8 bytes as-is (set via IDENTIFY)
+    private volatile boolean binary;
+    private boolean sending;
+    private boolean closed;
+    private int maxDepth;
+
+    SessionOutbox(Session session, int capacity) {
+        this.session = session;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queue a message; never blocks on the network. Returns false if the
+     * session is gone or was evicted by this call.
+     */
+    boolean offer(String key, BroadcastFrame frame) {
+        Outbound next;
+        synchronized (this) {
+            if (closed) return false;
+            if (key != null && conflate(key, frame)) return true;
+            if (queue.size() >= capacity) {
+                closed = true;
+                queue.clear();
+                next = null;
+            } else {
+                queue.addLast(new Outbound(key, frame));
+                enqueued.incrementAndGet();
+                maxDepth = Math.max(maxDepth, queue.size());
+                if (sending) return true;
+                sending = true;
+                next = queue.pollFirst();
+            }
+        }
+        if (next == null) {
+            evict();
+            return false;
+        }
+        send(next);
+        return true;
+    }
+
+    private boolean conflate(String key, BroadcastFrame frame) {
+        Iterator<Outbound> it = queue.iterator();
+        while (it.hasNext()) {
+            Outbound queued = it.next();
+            if (key.equals(queued.key)) {
+                queued.frame = frame;
+                conflated.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void send(Outbound outbound) {
+        if (!session.isOpen()) {
+            close();
+            return;
+        }
+        try {
+            if (binary) {
+                session.getAsyncRemote().sendBinary(outbound.frame.payload(), this::onSent);
+            } else {
+                session.getAsyncRemote().sendText(outbound.frame.text(), this::onSent);
+            }
+        } catch (RuntimeException e) {
+            onSent(new SendResult(e));
+        }
+    }
+
+    private void onSent(SendResult result) {
+        if (result.isOK()) {
+            sent.incrementAndGet();
+        } else {
+            sendFailures.incrementAndGet();
+        }
+        Outbound next;
+        synchronized (this) {
+            next = closed ? null : queue.pollFirst();
+            if (next == null) {
+                sending = false;
+                return;
+            }
+        }
+        send(next);
+    }
+
+    private void evict() {
+        evictions.incrementAndGet();
+        System.err.println("⚠️ Evicting slow WebSocket client " + session.getId()
+                + " (outbound queue over " + capacity + ")");
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Outbound queue overflow"));
+        } catch (IOException e) {
+            System.err.println("Error closing session: " + e.getMessage());
+        }
+    }
+
+    void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    synchronized void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    synchronized int getDepth() {
+        return queue.size();
+    }
+
+    synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+}
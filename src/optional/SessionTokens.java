@@ -0,0 +1,65 @@
+package optional;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opaque tokens handed out by the HTTP login routes, so a WebSocket session
+ * can prove who it is. A session that IDENTIFYs with a valid token gets the
+ * token's username and admin flag; whatever else it claims is ignored.
+ *
+ * Tokens are random (192 bits), kept in memory only and expire after 12
+ * hours (-Dlottery.tokens.ttlMinutes); a restart logs everyone out of their
+ * per-user events until they log in again.
+ */
+final class SessionTokens {
+    static final String TTL_PROPERTY = "lottery.tokens.ttlMinutes";
+
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong(TTL_PROPERTY, 12 * 60));
+    // Past this many live tokens, expired ones are purged on the next issue
+    private static final int PURGE_THRESHOLD = 100_000;
+    private static final SecureRandom random = new SecureRandom();
+    private static final Map<String, Identity> tokens = new ConcurrentHashMap<>();
+
+    private SessionTokens() {
+    }
+
+    static final class Identity {
+        final String username;
+        final boolean admin;
+        final long expiresAt;
+
+        Identity(String username, boolean admin, long expiresAt) {
+            this.username = username;
+            this.admin = admin;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    static String issue(String username, boolean admin) {
+        long now = System.currentTimeMillis();
+        if (tokens.size() > PURGE_THRESHOLD) {
+            tokens.values().removeIf(identity -> identity.expiresAt <= now);
+        }
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tokens.put(token, new Identity(username, admin, now + TTL_MILLIS));
+        return token;
+    }
+
+    /** The identity a token was issued for, or null if it is unknown or expired. */
+    static Identity resolve(Object token) {
+        if (!(token instanceof String)) return null;
+        Identity identity = tokens.get(token);
+        if (identity == null) return null;
+        if (identity.expiresAt <= System.currentTimeMillis()) {
+            tokens.remove(token);
+            return null;
+        }
+        return identity;
+    }
+}
@@ -0,0 +1,273 @@
+package optional;
+
+import protocol.ByteSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-Sent Events fan-out of the public WebSocket events, for clients that
+ * cannot hold a WebSocket open (e.g. behind proxies).
+ *
+ * Each event is encoded once into a complete SSE frame (id, event, data) and
+ * stored in a fixed ring (default 256, -Dlottery.sse.ringSize). Every stream
+ * only keeps a cursor into that ring and is handed the same bytes, so the
+ * cost of an event does not grow with per-connection serialization. Cursors
+ * double as SSE ids: a reconnecting EventSource sends Last-Event-ID and
+ * resumes where it left off, as long as the ring still holds that event.
+ *
+ * Streams on an HttpPush are fed by whichever thread publishes (and a 1 s
+ * housekeeping tick), without blocking; one that falls a whole ring behind
+ * with its socket backed up is disconnected. Engines without push serve a
+ * blocking reader per stream instead.
+ */
+final class SseBroadcaster {
+    static final String RING_SIZE_PROPERTY = "lottery.sse.ringSize";
+    static final int DEFAULT_RING_SIZE = 256;
+    // Event types mirrored from WebSocketServer
+    static final Set<String> TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "WINNING_NUMBER", "TICKET_COUNT", "LIVE_STATS", "ANNOUNCEMENT")));
+
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    // Unsent bytes a push stream may have queued before it is skipped
+    private static final long MAX_PENDING_BYTES = 64 * 1024;
+    private static final byte[] PREAMBLE = "retry: 3000\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Frame[] ring = new Frame[ringSize()];
+    private static final int mask = ring.length - 1;
+    private static final Object lock = new Object();
+    // Id the next event gets; ids start at 1 so 0 can mean "nothing seen"
+    private static volatile long nextId = 1;
+
+    private static final Set<PushStream> pushStreams = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger blockingStreams = new AtomicInteger();
+    private static final AtomicLong published = new AtomicLong();
+    private static final AtomicLong skipped = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static volatile ScheduledExecutorService housekeeper;
+    private static long lastHeartbeat = System.currentTimeMillis();
+
+    private SseBroadcaster() {
+    }
+
+    private static final class Frame {
+        final long id;
+        final byte[] bytes;
+
+        Frame(long id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    private static int ringSize() {
+        int requested = Math.max(16, Integer.getInteger(RING_SIZE_PROPERTY, DEFAULT_RING_SIZE));
+        return Integer.highestOneBit(requested - 1) << 1; // round up to a power of two
+    }
+
+    /**
+     * Store message as the next SSE event if it is one of TYPES, and push it
+     * to every connected push stream.
+     */
+    static void publish(BroadcastFrame message) {
+        if (!TYPES.contains(message.getType())) return;
+        synchronized (lock) {
+            long id = nextId;
+            ByteSink sink = new ByteSink(message.size() + 48);
+            sink.writeAscii("id: ").writeLong(id)
+                .writeAscii("\nevent: ").writeAscii(message.getType())
+                .writeAscii("\ndata: ");
+            message.writeTo(sink);
+            sink.writeAscii("\n\n");
+            ring[(int) (id & mask)] = new Frame(id, sink.toByteArray());
+            nextId = id + 1;
+            lock.notifyAll();
+        }
+        published.incrementAndGet();
+        pumpAll();
+    }
+
+    /**
+     * Feed push from now on, starting after lastEventId if the ring still holds
+     * the events after it, otherwise with the next event.
+     */
+    static void attach(HttpPush push, String lastEventId) {
+        PushStream stream = new PushStream(push, startId(lastEventId));
+        if (!push.write(ByteBuffer.wrap(PREAMBLE))) return;
+        pushStreams.add(stream);
+        startHousekeeper();
+        if (!stream.pump()) drop(stream);
+    }
+
+    /**
+     * Serve one stream on the calling thread until the client goes away.
+     */
+    static void stream(OutputStream out, String lastEventId) throws IOException {
+        long cursor = startId(lastEventId);
+        blockingStreams.incrementAndGet();
+        try {
+            out.write(PREAMBLE);
+            out.flush();
+            while (true) {
+                long head;
+                synchronized (lock) {
+                    if (cursor >= nextId) {
+                        try {
+                            lock.wait(HEARTBEAT_MILLIS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    head = nextId;
+                }
+                if (cursor >= head) {
+                    out.write(HEARTBEAT);
+                } else {
+                    while (cursor < head) {
+                        Frame frame = frame(cursor);
+                        if (frame == null) {
+                            skipped.incrementAndGet();
+                            cursor = oldestId();
+                            continue;
+                        }
+                        out.write(frame.bytes);
+                        cursor++;
+                    }
+                }
+                out.flush();
+            }
+        } finally {
+            blockingStreams.decrementAndGet();
+        }
+    }
+
+    /**
+     * End every push stream, e.g. when the HTTP server stops.
+     */
+    static void closeAll() {
+        for (PushStream stream : pushStreams) {
+            drop(stream);
+        }
+    }
+
+    static int getStreamCount() {
+        return pushStreams.size() + blockingStreams.get();
+    }
+
+    static String getStats() {
+        return String.format("{\"streams\":%d,\"pushStreams\":%d,\"published\":%d,\"lastEventId\":%d,"
+                + "\"ringSize\":%d,\"skipped\":%d,\"evictions\":%d}",
+                getStreamCount(), pushStreams.size(), published.get(), nextId - 1,
+                ring.length, skipped.get(), evictions.get());
+    }
+
+    private static long startId(String lastEventId) {
+        long next = nextId;
+        if (lastEventId != null) {
+            try {
+                long resume = Long.parseLong(lastEventId.trim()) + 1;
+                if (resume >= oldestId() && resume <= next) return resume;
+            } catch (NumberFormatException ignored) {
+                // not one of ours; start with the next event
+            }
+        }
+        return next;
+    }
+
+    private static long oldestId() {
+        return Math.max(1, nextId - ring.length);
+    }
+
+    /** The event with this id, or null if it has been overwritten. */
+    private static Frame frame(long id) {
+        Frame frame = ring[(int) (id & mask)];
+        return frame != null && frame.id == id ? frame : null;
+    }
+
+    private static void pumpAll() {
+        for (PushStream stream : pushStreams) {
+            if (!stream.pump()) drop(stream);
+        }
+    }
+
+    private static void drop(PushStream stream) {
+        pushStreams.remove(stream);
+        stream.push.close();
+    }
+
+    private static synchronized void startHousekeeper() {
+        if (housekeeper != null) return;
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sse-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(SseBroadcaster::housekeeping, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Catch up streams that were skipped while backed up, and send a comment
+     * now and then so dead connections are noticed and proxies keep them open.
+     */
+    private static void housekeeping() {
+        try {
+            pumpAll();
+            long now = System.currentTimeMillis();
+            if (now - lastHeartbeat < HEARTBEAT_MILLIS) return;
+            lastHeartbeat = now;
+            ByteBuffer heartbeat = ByteBuffer.wrap(HEARTBEAT).asReadOnlyBuffer();
+            for (PushStream stream : pushStreams) {
+                if (!stream.push.write(heartbeat)) drop(stream);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("SSE housekeeping failed: " + e.getMessage());
+        }
+    }
+
+    private static final class PushStream {
+        final HttpPush push;
+        // Id of the next event this stream needs
+        private long cursor;
+
+        PushStream(HttpPush push, long cursor) {
+            this.push = push;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Write what this stream has not seen yet; false if it should be dropped.
+         */
+        synchronized boolean pump() {
+            while (cursor < nextId) {
+                if (push.getPendingBytes() > MAX_PENDING_BYTES) {
+                    if (nextId - cursor <= ring.length) return push.isOpen();
+                    evictions.incrementAndGet();
+                    return false;
+                }
+                Frame frame = frame(cursor);
+                if (frame == null) {
+                    skipped.incrementAndGet();
+                    cursor = oldestId();
+                    continue;
+                }
+                if (!push.write(ByteBuffer.wrap(frame.bytes).asReadOnlyBuffer())) return false;
+                cursor++;
+            }
+            return push.isOpen();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package optional;
+
+import event.EventSubscriber;
+import event.LotteryEvent;
+import event.PrizeCredited;
+import event.TicketPurchased;
+import event.WinningNumberSet;
+
+import java.util.List;
+
+/**
+ * Event bus subscriber turning domain events into WebSocket traffic.
+ * Purchases go through the live stats ticker, which conflates them; draw
+ * results and prize notifications are sent as they arrive.
+ */
+public class WebSocketEventPublisher implements EventSubscriber {
+    @Override
+    public void onEvents(List<LotteryEvent> batch) {
+        for (LotteryEvent event : batch) {
+            try {
+                if (event instanceof TicketPurchased) {
+                    TicketPurchased purchase = (TicketPurchased) event;
+                    LiveStatsTicker.recordPurchase(purchase.getUsername(), purchase.getCount(),
+                            purchase.getFirstTicketId(), purchase.getLastTicketId(),
+                            purchase.getTotalTickets(), purchase.getJackpot());
+                } else if (event instanceof WinningNumberSet) {
+                    int number = ((WinningNumberSet) event).getNumber();
+                    WebSocketServer.broadcastWinningNumber(number);
+                    WebSocketServer.broadcastAnnouncement(
+                        "Winning Number Announced!",
+                        "The winning number is " + number,
+                        "success"
+                    );
+                    WebSocketServer.broadcastToAdmins("WINNING_NUMBER_SET",
+                        "Winning number set to: " + number);
+                } else if (event instanceof PrizeCredited) {
+                    PrizeCredited prize = (PrizeCredited) event;
+                    WebSocketServer.notifyWinner(prize.getUsername(), prize.getWinningNumber(), prize.getPrize());
+                }
+            } catch (Exception e) {
+                System.err.println("WebSocket broadcast error: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package optional;
+
+import org.glassfish.tyrus.server.Server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out cost of text versus binary WebSocket frames: many idle sessions
+ * subscribed to COUNTDOWN, and a series of broadcasts to all of them.
+ *
+ * The server runs in this JVM. The sessions are opened by a child JVM
+ * running this class in client mode (raw sockets, frames read and dropped),
+ * so the client's CPU and file descriptors stay out of the measured process;
+ * each side needs about sessions + 100 descriptors. Per event it reports the
+ * server's process CPU and the time until the async remote has completed the
+ * send to every session. Text and binary alternate for the given number of
+ * rounds so neither gets all of the JIT warm-up.
+ *
+ * Usage: java optional.WebSocketFanoutHarness [sessions] [events] [rounds] [port]
+ * (defaults 10000 sessions, 100 events, 2 rounds, port 9190)
+ */
+public class WebSocketFanoutHarness {
+    private static final String CLIENT_MODE = "--client";
+    private static final String PATH = "/ws/lottery-updates";
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final class Result {
+        double cpuMillis;
+        double wallMillis;
+        double p99Millis;
+        long failures;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && CLIENT_MODE.equals(args[0])) {
+            runClient(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Boolean.parseBoolean(args[3]));
+            return;
+        }
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 9190;
+
+        Server server = new Server("localhost", port, "/ws", new HashMap<>(), WebSocketServer.class);
+        server.start();
+        // The endpoint logs every connect and message; keep the table readable
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        out.printf("%d sessions, %d events per run%n", sessions, events);
+        out.printf("%-8s %6s %14s %14s %14s %9s%n", "mode", "round", "cpu ms/event", "wall ms/event", "p99 ms", "failures");
+        double[] cpuTotals = new double[2];
+        boolean ok = true;
+        try {
+            for (int round = 1; round <= rounds; round++) {
+                for (int mode = 0; mode < 2; mode++) {
+                    boolean binary = mode == 1;
+                    Result result = measure(port, sessions, events, binary);
+                    cpuTotals[mode] += result.cpuMillis;
+                    ok &= result.failures == 0;
+                    out.printf("%-8s %6d %14.2f %14.2f %14.2f %9d%n", binary ? "binary" : "text", round,
+                            result.cpuMillis, result.wallMillis, result.p99Millis, result.failures);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+        double text = cpuTotals[0] / rounds;
+        double binary = cpuTotals[1] / rounds;
+        out.printf("mean cpu ms/event: text %.2f, binary %.2f (binary %s by %.0f%%)%n", text, binary,
+                binary < text ? "cheaper" : "dearer", Math.abs(binary - text) * 100 / text);
+        out.println(ok ? "PASS" : "FAIL (send failures)");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static Result measure(int port, int sessions, int events, boolean binary) throws Exception {
+        Process client = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"), WebSocketFanoutHarness.class.getName(),
+                CLIENT_MODE, String.valueOf(port), String.valueOf(sessions), String.valueOf(binary))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            BufferedReader lines = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                    StandardCharsets.UTF_8));
+            if (!"READY".equals(lines.readLine())) throw new IOException("Client did not connect its sessions");
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+            while (WebSocketServer.getConnectedClientsCount() < sessions) {
+                if (System.currentTimeMillis() > deadline) throw new IOException("Sessions did not all open");
+                Thread.sleep(100);
+            }
+            awaitQuiet();
+
+            // Warm-up, then the measured events one at a time
+            for (int i = 0; i < Math.min(events, 10); i++) {
+                fanOut(sessions, i);
+            }
+            com.sun.management.OperatingSystemMXBean os =
+                    (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            long failuresBefore = SessionOutbox.sendFailures.get();
+            long[] latencies = new long[events];
+            long cpuBefore = os.getProcessCpuTime();
+            long began = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                latencies[i] = fanOut(sessions, i);
+            }
+            long elapsed = System.nanoTime() - began;
+            long cpu = os.getProcessCpuTime() - cpuBefore;
+
+            Arrays.sort(latencies);
+            Result result = new Result();
+            result.cpuMillis = cpu / 1e6 / events;
+            result.wallMillis = elapsed / 1e6 / events;
+            result.p99Millis = latencies[Math.min(events - 1, (int) Math.ceil(events * 0.99) - 1)] / 1e6;
+            result.failures = SessionOutbox.sendFailures.get() - failuresBefore;
+            return result;
+        } finally {
+            client.destroy();
+            client.waitFor();
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+            while (WebSocketServer.getConnectedClientsCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /** Broadcast one event and wait until every session's send has completed; returns the nanos taken. */
+    private static long fanOut(int sessions, int seconds) throws InterruptedException {
+        long target = SessionOutbox.sent.get() + SessionOutbox.sendFailures.get() + sessions;
+        long start = System.nanoTime();
+        WebSocketServer.broadcastCountdown(seconds);
+        while (SessionOutbox.sent.get() + SessionOutbox.sendFailures.get() < target) {
+            Thread.sleep(0, 100_000);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Wait until the connect-time messages have all gone out. */
+    private static void awaitQuiet() throws InterruptedException {
+        long before = SessionOutbox.sent.get();
+        while (true) {
+            Thread.sleep(1000);
+            long now = SessionOutbox.sent.get();
+            if (now == before) return;
+            before = now;
+        }
+    }
+
+    /**
+     * Client mode: open the sessions one by one, opt out of LIVE_STATS (each
+     * connect broadcasts it, which would make setup quadratic), ask for binary
+     * frames if wanted, print READY and then read and drop everything until
+     * killed or the parent goes away.
+     */
+    private static void runClient(int port, int sessions, boolean binary) throws IOException {
+        // Exit with the parent, which holds our stdin
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                    // nothing is ever sent
+                }
+            } catch (IOException ignored) {
+                // treat like end of input
+            }
+            System.exit(0);
+        }, "parent-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        byte[] handshake = ("GET " + PATH + " HTTP/1.1\r\nHost: localhost:" + port + "\r\n"
+                + "Upgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        String hello = binary
+                ? "{\"type\":\"IDENTIFY\",\"binary\":true}"
+                : "{\"type\":\"IDENTIFY\"}";
+        String unsubscribe = "{\"type\":\"UNSUBSCRIBE\",\"topics\":[\"LIVE_STATS\"]}";
+
+        Selector selector = Selector.open();
+        ByteBuffer scratch = ByteBuffer.allocateDirect(64 * 1024);
+        for (int i = 0; i < sessions; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+            channel.write(ByteBuffer.wrap(handshake));
+            readHandshakeResponse(channel);
+            channel.write(ByteBuffer.wrap(maskedTextFrame(unsubscribe)));
+            channel.write(ByteBuffer.wrap(maskedTextFrame(hello)));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            if (i % 100 == 99) drain(selector, scratch, false);
+        }
+        System.out.println("READY");
+        System.out.flush();
+        while (true) {
+            drain(selector, scratch, true);
+        }
+    }
+
+    private static void drain(Selector selector, ByteBuffer scratch, boolean block) throws IOException {
+        if (block) {
+            selector.select();
+        } else {
+            selector.selectNow();
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            SocketChannel channel = (SocketChannel) key.channel();
+            scratch.clear();
+            if (channel.read(scratch) < 0) {
+                key.cancel();
+                channel.close();
+            }
+        }
+    }
+
+    /** Read up to the blank line that ends the 101 response, a byte at a time so no frame bytes are consumed. */
+    private static void readHandshakeResponse(SocketChannel channel) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        StringBuilder response = new StringBuilder();
+        while (response.length() < 4 || !response.substring(response.length() - 4).equals("\r\n\r\n")) {
+            one.clear();
+            if (channel.read(one) < 0) throw new IOException("Connection closed during handshake");
+            response.append((char) one.get(0));
+        }
+        if (!response.toString().startsWith("HTTP/1.1 101")) {
+            throw new IOException("Handshake refused: " + response.toString().trim());
+        }
+    }
+
+    private static byte[] maskedTextFrame(String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > 125) throw new IllegalArgumentException("Frame too long for this client");
+        byte[] mask = new byte[4];
+        ThreadLocalRandom.current().nextBytes(mask);
+        byte[] frame = new byte[6 + payload.length];
+        frame[0] = (byte) 0x81;
+        frame[1] = (byte) (0x80 | payload.length);
+        System.arraycopy(mask, 0, frame, 2, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[6 + i] = (byte) (payload[i] ^ mask[i % 4]);
+        }
+        return frame;
+    }
+}
@@ -1,11 +1,20 @@
 package optional;
 
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import protocol.MessageParser;
+
 import javax.websocket.*;
 import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
@@ -17,20 +26,45 @@ import java.util.concurrent.CopyOnWriteArraySet;
 public class WebSocketServer {
     // Thread-safe set of connected clients
     private static Set<Session> clients = new CopyOnWriteArraySet<>();
+    // Per-session outbound queues; sends never happen on the broadcasting thread
+    private static final Map<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+    private static final int OUTBOX_CAPACITY =
+            Integer.getInteger("lottery.ws.outboxCapacity", SessionOutbox.DEFAULT_CAPACITY);
+    
+    // Recipient indexes, filled from IDENTIFY/SUBSCRIBE, so targeted events cost
+    // O(recipients) rather than a scan over every client
+    private static final Set<Session> admins = ConcurrentHashMap.newKeySet();
+    private static final Map<String, Set<Session>> userSessions = new ConcurrentHashMap<>();
+    private static final Map<String, Set<Session>> topicSubscribers = new ConcurrentHashMap<>();
+    // Topics are the public event types; new sessions get all of them until they UNSUBSCRIBE
+    private static final List<String> TOPICS = Collections.unmodifiableList(Arrays.asList(
+            "WINNING_NUMBER", "TICKET_COUNT", "COUNTDOWN", "LIVE_STATS", "TICKET_PURCHASED", "ANNOUNCEMENT"));
+    private static final String USER_IDS_PROPERTY = "userIds";
+    // Fan-out time per event type, i.e. queueing a frame for all its recipients
+    private static final Map<String, LatencyHistogram> broadcastLatency = new ConcurrentHashMap<>();
+    
+    static {
+        for (String topic : TOPICS) {
+            topicSubscribers.put(topic, ConcurrentHashMap.newKeySet());
+        }
+    }
     
     /**
      * Called when a new client connects
      */
     @OnOpen
     public void onOpen(Session session) {
+        outboxes.put(session.getId(), new SessionOutbox(session, OUTBOX_CAPACITY));
         clients.add(session);
+        subscribe(session, TOPICS);
         System.out.println("✅ WebSocket client connected: " + session.getId());
         System.out.println("📊 Total connected clients: " + clients.size());
         
         // Send welcome message with current stats
-        sendToSession(session, createMessage("CONNECTED", 
-            String.format("{\"clientId\":\"%s\",\"totalClients\":%d}", 
-            session.getId(), clients.size())));
+        sendToSession(session, BroadcastFrame.event("CONNECTED")
+            .field("clientId", session.getId())
+            .field("totalClients", clients.size())
+            .build());
         
         // Broadcast updated client count to all
         broadcastLiveStats();
@@ -41,7 +75,7 @@ public class WebSocketServer {
      */
     @OnClose
     public void onClose(Session session) {
-        clients.remove(session);
+        unregister(session);
         System.out.println("❌ WebSocket client disconnected: " + session.getId());
         System.out.println("📊 Remaining clients: " + clients.size());
         
@@ -65,24 +99,112 @@ public class WebSocketServer {
     public void onMessage(String message, Session session) {
         System.out.println("📨 Received from " + session.getId() + ": " + message);
         
+        Map<String, Object> fields;
+        try {
+            fields = MessageParser.parseJsonObject(message);
+        } catch (RuntimeException e) {
+            System.err.println("⚠️ Ignoring malformed WebSocket message from " + session.getId());
+            return;
+        }
+        if (fields == null || !outboxes.containsKey(session.getId())) return;
+        
         // Handle client messages (e.g., marking user as admin, subscribing to updates)
-        if (message.contains("\"type\":\"IDENTIFY\"")) {
-            // Extract user info and store in session properties
-            // Example: {"type":"IDENTIFY","userId":"user123","isAdmin":true}
-            if (message.contains("\"isAdmin\":true")) {
+        Object type = fields.get("type");
+        if ("IDENTIFY".equals(type)) {
+            // Example: {"type":"IDENTIFY","token":"<from /login or /admin-login>","binary":true}
+            identify(session, fields);
+        } else if ("SUBSCRIBE".equals(type)) {
+            // Example: {"type":"SUBSCRIBE","topics":["LIVE_STATS","WINNING_NUMBER"]}
+            subscribe(session, topicsOf(fields));
+        } else if ("UNSUBSCRIBE".equals(type)) {
+            for (String topic : topicsOf(fields)) {
+                Set<Session> subscribers = topicSubscribers.get(topic);
+                if (subscribers != null) subscribers.remove(session);
+            }
+        }
+    }
+    
+    private static void identify(Session session, Map<String, Object> fields) {
+        // Per-user and admin events only go to identities proven by a login token;
+        // the userId, username and isAdmin a client asserts on its own are not trusted
+        SessionTokens.Identity identity = SessionTokens.resolve(fields.get("token"));
+        if (identity != null) {
+            if (identity.admin) {
                 session.getUserProperties().put("isAdmin", true);
+                admins.add(session);
                 System.out.println("👑 Admin identified: " + session.getId());
             }
+            // Winners are notified by their lottery username
+            userSessions.computeIfAbsent(identity.username, k -> ConcurrentHashMap.newKeySet()).add(session);
+            userIdsOf(session).add(identity.username);
+        } else if (fields.containsKey("userId") || fields.containsKey("username") || fields.containsKey("isAdmin")) {
+            System.out.println("⚠️ Unverified IDENTIFY from " + session.getId() + "; public events only");
+        }
+        // Opt-in: receive events as binary frames holding the UTF-8 JSON
+        if (Boolean.TRUE.equals(fields.get("binary"))) {
+            SessionOutbox outbox = outboxes.get(session.getId());
+            if (outbox != null) outbox.setBinary(true);
+        }
+        // A session closed while we were indexing it must not linger in the maps
+        if (!session.isOpen()) unregister(session);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Set<String> userIdsOf(Session session) {
+        return (Set<String>) session.getUserProperties()
+                .computeIfAbsent(USER_IDS_PROPERTY, k -> ConcurrentHashMap.newKeySet());
+    }
+    
+    private static Collection<String> topicsOf(Map<String, Object> fields) {
+        Object topics = fields.get("topics");
+        if (topics instanceof List) {
+            List<String> names = new ArrayList<>();
+            for (Object topic : (List<?>) topics) {
+                if (topic instanceof String) names.add((String) topic);
+            }
+            return names;
         }
+        Object topic = fields.get("topic");
+        return topic instanceof String ? Collections.singletonList((String) topic) : Collections.emptyList();
+    }
+    
+    private static void subscribe(Session session, Collection<String> topics) {
+        for (String topic : topics) {
+            Set<Session> subscribers = topicSubscribers.get(topic);
+            if (subscribers != null) subscribers.add(session);
+        }
+    }
+    
+    /**
+     * Drop a session from every index and close its outbox
+     */
+    private static void unregister(Session session) {
+        clients.remove(session);
+        admins.remove(session);
+        for (Set<Session> subscribers : topicSubscribers.values()) {
+            subscribers.remove(session);
+        }
+        Object userIds = session.getUserProperties().get(USER_IDS_PROPERTY);
+        if (userIds instanceof Set) {
+            for (Object userId : (Set<?>) userIds) {
+                userSessions.computeIfPresent((String) userId, (k, sessions) -> {
+                    sessions.remove(session);
+                    return sessions.isEmpty() ? null : sessions;
+                });
+            }
+        }
+        SessionOutbox outbox = outboxes.remove(session.getId());
+        if (outbox != null) outbox.close();
     }
     
     /**
      * Broadcast winning number to all connected clients
      */
     public static void broadcastWinningNumber(int winningNumber) {
-        String message = createMessage("WINNING_NUMBER", 
-            String.format("{\"number\":%d,\"timestamp\":%d}", 
-            winningNumber, System.currentTimeMillis()));
+        BroadcastFrame message = BroadcastFrame.event("WINNING_NUMBER")
+            .field("number", winningNumber)
+            .timestamp()
+            .build();
         
         broadcast(message);
         System.out.println("🎉 Broadcasted winning number: " + winningNumber + " to " + clients.size() + " clients");
@@ -92,22 +214,24 @@ public class WebSocketServer {
      * Broadcast ticket count update
      */
     public static void broadcastTicketCount(int totalTickets) {
-        String message = createMessage("TICKET_COUNT", 
-            String.format("{\"total\":%d,\"timestamp\":%d}", 
-            totalTickets, System.currentTimeMillis()));
+        BroadcastFrame message = BroadcastFrame.event("TICKET_COUNT")
+            .field("total", totalTickets)
+            .timestamp()
+            .build();
         
-        broadcast(message);
+        broadcast("TICKET_COUNT", message);
     }
     
     /**
      * Broadcast countdown timer
      */
     public static void broadcastCountdown(int secondsRemaining) {
-        String message = createMessage("COUNTDOWN", 
-            String.format("{\"seconds\":%d,\"timestamp\":%d}", 
-            secondsRemaining, System.currentTimeMillis()));
+        BroadcastFrame message = BroadcastFrame.event("COUNTDOWN")
+            .field("seconds", secondsRemaining)
+            .timestamp()
+            .build();
         
-        broadcast(message);
+        broadcast("COUNTDOWN", message);
     }
     
     /**
@@ -120,41 +244,44 @@ public class WebSocketServer {
     public static void broadcastLiveStats(int totalTickets, double jackpot) {
         int activeUsers = clients.size();
         
-        String message = createMessage("LIVE_STATS", 
-            String.format("{\"activeUsers\":%d,\"totalTickets\":%d,\"jackpot\":%.2f,\"timestamp\":%d}", 
-            activeUsers, totalTickets, jackpot, System.currentTimeMillis()));
+        BroadcastFrame message = BroadcastFrame.event("LIVE_STATS")
+            .field("activeUsers", activeUsers)
+            .field("totalTickets", totalTickets)
+            .field("jackpot", Math.round(jackpot * 100) / 100.0)
+            .timestamp()
+            .build();
         
-        broadcast(message);
+        broadcast("LIVE_STATS", message);
     }
     
     /**
      * Notify specific user that they won
      */
     public static void notifyWinner(String userId, int winningNumber, double prize) {
-        String message = createMessage("YOU_WON", 
-            String.format("{\"userId\":\"%s\",\"number\":%d,\"prize\":%.2f,\"timestamp\":%d}", 
-            userId, winningNumber, prize, System.currentTimeMillis()));
+        BroadcastFrame message = BroadcastFrame.event("YOU_WON")
+            .field("userId", userId)
+            .field("number", winningNumber)
+            .field("prize", Math.round(prize * 100) / 100.0)
+            .timestamp()
+            .build();
         
-        // Send to all clients (frontend will filter by userId)
-        broadcast(message);
-        System.out.println("🏆 Notified winner " + userId + " - Prize: $" + prize);
+        // Only the winner's own sessions get the payload
+        int delivered = sendToAll(userSessions.getOrDefault(userId, Collections.emptySet()), null, message);
+        System.out.println("🏆 Notified winner " + userId + " - Prize: $" + prize
+            + " (" + delivered + " sessions)");
     }
     
     /**
      * Broadcast admin event (visible only to admins)
      */
     public static void broadcastToAdmins(String event, String details) {
-        String message = createMessage("ADMIN_EVENT", 
-            String.format("{\"event\":\"%s\",\"details\":\"%s\",\"timestamp\":%d}", 
-            event, details, System.currentTimeMillis()));
+        BroadcastFrame message = BroadcastFrame.event("ADMIN_EVENT")
+            .field("event", event)
+            .field("details", details)
+            .timestamp()
+            .build();
         
-        int adminCount = 0;
-        for (Session session : clients) {
-            if (Boolean.TRUE.equals(session.getUserProperties().get("isAdmin"))) {
-                sendToSession(session, message);
-                adminCount++;
-            }
-        }
+        int adminCount = sendToAll(admins, null, message);
         
         System.out.println("👑 Sent admin event to " + adminCount + " admins: " + event);
     }
@@ -163,16 +290,46 @@ public class WebSocketServer {
      * Broadcast new ticket purchase event
      */
     public static void broadcastTicketPurchase(String username, int[] numbers) {
-        String numbersJson = "[";
-        for (int i = 0; i < numbers.length; i++) {
-            numbersJson += numbers[i];
-            if (i < numbers.length - 1) numbersJson += ",";
-        }
-        numbersJson += "]";
+        BroadcastFrame message = BroadcastFrame.event("TICKET_PURCHASED")
+            .field("username", username)
+            .field("numbers", numbers)
+            .timestamp()
+            .build();
         
-        String message = createMessage("TICKET_PURCHASED", 
-            String.format("{\"username\":\"%s\",\"numbers\":%s,\"timestamp\":%d}", 
-            username, numbersJson, System.currentTimeMillis()));
+        broadcast(message);
+    }
+    
+    /**
+     * Broadcast a bulk purchase as one event covering the whole ticket-id range
+     */
+    public static void broadcastBulkTicketPurchase(String username, int count, int firstTicketId, int lastTicketId) {
+        BroadcastFrame message = BroadcastFrame.event("TICKET_PURCHASED")
+            .field("username", username)
+            .field("count", count)
+            .field("firstTicketId", firstTicketId)
+            .field("lastTicketId", lastTicketId)
+            .timestamp()
+            .build();
+        
+        broadcast(message);
+    }
+    
+    /**
+     * Broadcast one TICKET_PURCHASED digest for everything sold in a ticker
+     * period. "username" (first buyer) keeps older clients' toasts working;
+     * "count" and "buyers" describe the whole batch.
+     */
+    public static void broadcastPurchaseDigest(List<String> buyers, int purchases, long count,
+                                               int firstTicketId, int lastTicketId) {
+        BroadcastFrame message = BroadcastFrame.event("TICKET_PURCHASED")
+            .field("username", buyers.isEmpty() ? "" : buyers.get(0))
+            .field("buyers", buyers)
+            .field("purchases", purchases)
+            .field("count", count)
+            .field("firstTicketId", firstTicketId)
+            .field("lastTicketId", lastTicketId)
+            .timestamp()
+            .build();
         
         broadcast(message);
     }
@@ -181,30 +338,46 @@ public class WebSocketServer {
      * Broadcast system announcement
      */
     public static void broadcastAnnouncement(String title, String content, String type) {
-        String message = createMessage("ANNOUNCEMENT", 
-            String.format("{\"title\":\"%s\",\"content\":\"%s\",\"type\":\"%s\",\"timestamp\":%d}", 
-            title, content, type, System.currentTimeMillis()));
+        BroadcastFrame message = BroadcastFrame.event("ANNOUNCEMENT")
+            .field("title", title)
+            .field("content", content)
+            .field("type", type)
+            .timestamp()
+            .build();
         
         broadcast(message);
         System.out.println("📢 Broadcasted announcement: " + title);
     }
     
     /**
-     * Helper: Create JSON message with type and data
+     * Helper: Broadcast message to all connected clients
      */
-    private static String createMessage(String type, String data) {
-        return String.format("{\"type\":\"%s\",\"data\":%s}", type, data);
+    private static void broadcast(BroadcastFrame message) {
+        broadcast(null, message);
     }
     
     /**
-     * Helper: Broadcast message to all connected clients
+     * Helper: Queue message for every subscriber of its event type. The frame
+     * is encoded once and shared; messages sharing a conflation key replace
+     * each other while still queued (latest value wins).
      */
-    private static void broadcast(String message) {
+    private static void broadcast(String conflationKey, BroadcastFrame message) {
+        // SSE clients get the public events from the same encoded frame
+        SseBroadcaster.publish(message);
+        Set<Session> subscribers = topicSubscribers.get(message.getType());
+        sendToAll(subscribers != null ? subscribers : clients, conflationKey, message);
+    }
+    
+    /**
+     * Helper: Queue message for each of the given sessions, returns how many accepted it
+     */
+    private static int sendToAll(Collection<Session> sessions, String conflationKey, BroadcastFrame message) {
+        long start = System.nanoTime();
         int successCount = 0;
         int failCount = 0;
         
-        for (Session session : clients) {
-            if (sendToSession(session, message)) {
+        for (Session session : sessions) {
+            if (sendToSession(session, conflationKey, message)) {
                 successCount++;
             } else {
                 failCount++;
@@ -212,24 +385,71 @@ public class WebSocketServer {
         }
         
         if (failCount > 0) {
-            System.out.println("⚠️ Broadcast result: " + successCount + " success, " + failCount + " failed");
+            System.out.println("⚠️ Broadcast result: " + successCount + " queued, " + failCount + " failed");
         }
+        broadcastLatency.computeIfAbsent(message.getType(), type -> MetricsRegistry.getDefault().histogram(
+                "lottery_ws_broadcast_seconds", "Time to queue one WebSocket event for all its recipients",
+                "type", type)).recordSince(start);
+        return successCount;
     }
     
     /**
-     * Helper: Send message to specific session
+     * Helper: Queue message for a specific session
      */
-    private static boolean sendToSession(Session session, String message) {
-        if (session != null && session.isOpen()) {
-            try {
-                session.getBasicRemote().sendText(message);
-                return true;
-            } catch (IOException e) {
-                System.err.println("❌ Failed to send to session " + session.getId() + ": " + e.getMessage());
-                return false;
-            }
+    private static boolean sendToSession(Session session, BroadcastFrame message) {
+        return sendToSession(session, null, message);
+    }
+    
+    private static boolean sendToSession(Session session, String conflationKey, BroadcastFrame message) {
+        if (session == null || !session.isOpen()) return false;
+        SessionOutbox outbox = outboxes.get(session.getId());
+        if (outbox == null) return false;
+        if (!outbox.offer(conflationKey, message)) {
+            // Evicted or closed: stop broadcasting to it before onClose arrives
+            unregister(session);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Outbound queue metrics: current total/max depth across sessions and
+     * lifetime counters for sends, conflations and slow-client evictions.
+     */
+    public static String getOutboundStats() {
+        int totalDepth = 0;
+        int maxDepth = 0;
+        int peakDepth = 0;
+        for (SessionOutbox outbox : outboxes.values()) {
+            int depth = outbox.getDepth();
+            totalDepth += depth;
+            maxDepth = Math.max(maxDepth, depth);
+            peakDepth = Math.max(peakDepth, outbox.getMaxDepth());
         }
-        return false;
+        return String.format("{\"sessions\":%d,\"queueDepth\":%d,\"maxQueueDepth\":%d,\"peakQueueDepth\":%d,"
+                + "\"enqueued\":%d,\"sent\":%d,\"conflated\":%d,\"evictions\":%d,\"sendFailures\":%d}",
+                outboxes.size(), totalDepth, maxDepth, peakDepth,
+                SessionOutbox.enqueued.get(), SessionOutbox.sent.get(), SessionOutbox.conflated.get(),
+                SessionOutbox.evictions.get(), SessionOutbox.sendFailures.get());
+    }
+    
+    /**
+     * Frames queued across all sessions and not yet sent.
+     */
+    public static int getQueueDepth() {
+        int depth = 0;
+        for (SessionOutbox outbox : outboxes.values()) {
+            depth += outbox.getDepth();
+        }
+        return depth;
+    }
+
+    public static long getEvictionCount() {
+        return SessionOutbox.evictions.get();
+    }
+    
+    public static int getAdminCount() {
+        return admins.size();
     }
     
     /**
@@ -252,5 +472,14 @@ public class WebSocketServer {
             }
         }
         clients.clear();
+        admins.clear();
+        userSessions.clear();
+        for (Set<Session> subscribers : topicSubscribers.values()) {
+            subscribers.clear();
+        }
+        for (SessionOutbox outbox : outboxes.values()) {
+            outbox.close();
+        }
+        outboxes.clear();
     }
 }
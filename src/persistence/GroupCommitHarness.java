@@ -0,0 +1,113 @@
+package persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Throughput and latency of durable appends through the GroupCommitter:
+ * each thread appends a purchase record and waits for it to be forced to
+ * disk, over and over, as DataManager does for every purchase.
+ *
+ * Runs once with commitDelayMicros=0 (flush as soon as anyone waits) and
+ * once with the default delay, each on a fresh ledger in a temporary
+ * directory, and prints ops/s, p50/p99 latency and how many records each
+ * force covered. Point it at the disk the server really uses; tmpfs makes
+ * every force free. Exits with 1 if any commit fails.
+ *
+ * Usage: java persistence.GroupCommitHarness [threads] [opsPerThread] [dir]
+ * (defaults 32 threads, 500 ops per thread, the system temp directory)
+ */
+public class GroupCommitHarness {
+    private static final int SEGMENT_RECORDS = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int opsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        Path parent = args.length > 2 ? Paths.get(args[2]) : Paths.get(System.getProperty("java.io.tmpdir"));
+
+        System.out.printf("%d threads x %d durable appends, ledger under %s%n", threads, opsPerThread, parent);
+        System.out.printf("%-18s %12s %10s %10s %16s%n", "commitDelayMicros", "ops/s", "p50 us", "p99 us", "records/commit");
+        boolean ok = run(parent, 0, threads, opsPerThread);
+        ok &= run(parent, GroupCommitter.DEFAULT_MAX_DELAY_MICROS, threads, opsPerThread);
+        System.out.println(ok ? "PASS" : "FAIL");
+        if (!ok) System.exit(1);
+    }
+
+    private static boolean run(Path parent, long delayMicros, int threads, int opsPerThread) throws Exception {
+        Path dir = Files.createTempDirectory(parent, "group-commit-");
+        try {
+            Ledger ledger = Ledger.open(dir, SEGMENT_RECORDS);
+            ledger.recover(record -> { });
+            GroupCommitter committer = new GroupCommitter(ledger, delayMicros, GroupCommitter.DEFAULT_MAX_BATCH);
+            committer.start();
+
+            long[][] latencies = new long[threads][opsPerThread];
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                long[] mine = latencies[t];
+                int userId = t;
+                Thread writer = new Thread(() -> {
+                    try {
+                        start.await();
+                        int[] numbers = {1, 2, 3, 4, 5};
+                        for (int i = 0; i < mine.length; i++) {
+                            long began = System.nanoTime();
+                            long sequence = ledger.append(LedgerRecord.purchase(1000 + i, userId, 1000,
+                                    System.currentTimeMillis(), numbers));
+                            committer.awaitDurable(sequence);
+                            mine[i] = System.nanoTime() - began;
+                        }
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }, "writer-" + t);
+                writer.start();
+            }
+
+            long began = System.nanoTime();
+            start.countDown();
+            done.await();
+            long elapsed = System.nanoTime() - began;
+            long commits = committer.getCommitCount();
+            committer.close();
+            ledger.close();
+
+            if (failure.get() != null) {
+                System.out.println("  commit failed: " + failure.get().getMessage());
+                return false;
+            }
+            long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+            System.out.printf("%-18d %12.0f %10.0f %10.0f %16.1f%n", delayMicros,
+                    all.length / (elapsed / 1e9), percentile(all, 0.50) / 1e3, percentile(all, 0.99) / 1e3,
+                    commits > 0 ? all.length / (double) commits : 0.0);
+            return true;
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * fraction) - 1)];
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
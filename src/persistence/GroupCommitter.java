@@ -0,0 +1,205 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for the ledger. Writers append, then call awaitDurable(seq);
+ * a single flusher thread forces the mapped segment once per batch, so N
+ * concurrent purchases share one fsync instead of paying for N.
+ *
+ * A batch is flushed when maxBatch records are waiting or maxDelay has passed
+ * since the oldest waiter arrived, whichever comes first. maxDelay 0 flushes
+ * as soon as anyone waits (fsync per operation when there is no concurrency).
+ *
+ * Usage: construct, start() once the ledger is recovered, awaitDurable() after appends.
+ *
+ * A failed force is sticky: once the OS reports a write-back error the ledger
+ * can no longer promise durability, so every later await fails too.
+ */
+public class GroupCommitter implements Closeable {
+    public static final String MAX_DELAY_PROPERTY = "lottery.ledger.commitDelayMicros";
+    public static final String MAX_BATCH_PROPERTY = "lottery.ledger.commitBatch";
+    public static final long DEFAULT_MAX_DELAY_MICROS = 1000;
+    public static final int DEFAULT_MAX_BATCH = 512;
+
+    private final Ledger ledger;
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final Thread flusher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition committed = lock.newCondition();
+    private long requestedSequence;
+    private long firstPendingAt;
+    private volatile long durableSequence;
+    private volatile IOException failure;
+    private volatile boolean running = true;
+
+    private long commits;
+    private long recordsCommitted;
+
+    public GroupCommitter(Ledger ledger, long maxDelayMicros, int maxBatch) {
+        this.ledger = ledger;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, maxDelayMicros));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.flusher = new Thread(this::flushLoop, "ledger-group-commit");
+        flusher.setDaemon(true);
+    }
+
+    /**
+     * Start flushing. Call after the ledger has been recovered; the records it
+     * replayed are already on disk and count as durable.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            durableSequence = ledger.getLastSequence();
+            requestedSequence = durableSequence;
+        } finally {
+            lock.unlock();
+        }
+        flusher.start();
+    }
+
+    public static GroupCommitter fromSystemProperties(Ledger ledger) {
+        return new GroupCommitter(ledger,
+                Long.getLong(MAX_DELAY_PROPERTY, DEFAULT_MAX_DELAY_MICROS),
+                Integer.getInteger(MAX_BATCH_PROPERTY, DEFAULT_MAX_BATCH));
+    }
+
+    /**
+     * Block until every record up to sequence has been forced to disk.
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        if (sequence <= durableSequence) return;
+        lock.lock();
+        try {
+            if (sequence > requestedSequence) {
+                boolean idle = requestedSequence <= durableSequence;
+                if (idle) firstPendingAt = System.nanoTime();
+                requestedSequence = sequence;
+                if (idle || requestedSequence - durableSequence >= maxBatch) {
+                    pending.signal();
+                }
+            }
+            while (durableSequence < sequence) {
+                if (failure != null) throw failure;
+                if (!running) throw new IOException("Ledger group commit stopped");
+                committed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (failure != null && sequence > durableSequence) throw failure;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                while (running && requestedSequence <= durableSequence) {
+                    pending.awaitUninterruptibly();
+                }
+                if (!running && requestedSequence <= durableSequence) return;
+                long remaining;
+                while (running && requestedSequence - durableSequence < maxBatch
+                        && (remaining = firstPendingAt + maxDelayNanos - System.nanoTime()) > 0) {
+                    try {
+                        pending.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            long synced;
+            try {
+                // Force outside the lock so writers keep appending into the next batch
+                synced = ledger.sync();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ledger sync failed: " + e.getMessage());
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                lock.lock();
+                try {
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            lock.lock();
+            try {
+                if (synced > durableSequence) {
+                    commits++;
+                    recordsCommitted += synced - durableSequence;
+                    durableSequence = synced;
+                }
+                if (requestedSequence > durableSequence) {
+                    firstPendingAt = System.nanoTime();
+                }
+                committed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    long getCommitCount() {
+        lock.lock();
+        try {
+            return commits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commits so far and the average number of records each one covered.
+     */
+    public String getStats() {
+        lock.lock();
+        try {
+            double perCommit = commits > 0 ? (double) recordsCommitted / commits : 0.0;
+            return String.format("Ledger group commit: %d commits, %.1f records/commit", commits, perCommit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flush whatever is still pending, then stop the flusher thread.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            committed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only ledger of purchases, draws and credits kept in memory-mapped
+ * segment files (ledger-NNNNNNNN.seg). An append is a 64-byte copy into the
+ * mapped page cache, so it costs about as much as a map insert; the OS
+ * writes pages back in the background.
+ *
+ * Usage: open the directory, recover() once to replay existing records and
+ * position the writer, then append(). Appends reach the disk when the OS
+ * writes the pages back; use a GroupCommitter to wait for that explicitly.
+ */
+public class Ledger implements Closeable {
+    public static final String DIR_PROPERTY = "lottery.ledger.dir";
+    public static final String SEGMENT_RECORDS_PROPERTY = "lottery.ledger.segmentRecords";
+    public static final String DEFAULT_DIR = "data/ledger";
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 18; // 16 MB per segment
+
+    private static final String SEGMENT_PREFIX = "ledger-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final List<LedgerSegment> segments = new ArrayList<>();
+    // Segment files found by open(). recover() maps those it replays; the ones
+    // a snapshot covers but an older snapshot still needs stay here, unmapped
+    private final List<Path> existingFiles = new ArrayList<>();
+    // Obsolete segments whose delete failed while still mapped (Windows); retried later
+    private final List<Path> pendingDeletes = new ArrayList<>();
+    private final byte[] scratch = new byte[LedgerRecord.SIZE * LedgerRecord.MAX_SLOTS];
+    // Sequence ranges cancelled by VOID records; rare, so a plain list
+    private final List<long[]> voided = new ArrayList<>();
+    private LedgerSegment active;
+    private long nextSequence = 1;
+    private boolean recovered;
+
+    private Ledger(Path directory, int segmentRecords) {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+    }
+
+    public static Ledger open(Path directory, int segmentRecords) throws IOException {
+        Files.createDirectories(directory);
+        Ledger ledger = new Ledger(directory, segmentRecords);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(Path::getFileName));
+        ledger.existingFiles.addAll(files);
+        return ledger;
+    }
+
+    /**
+     * Validate all segments in parallel, then stream their records to replay
+     * in ledger order. Returns the number of records replayed.
+     */
+    public long recover(Consumer<LedgerRecord> replay) throws IOException {
+        return recover(replay, -1, 0, -1);
+    }
+
+    /**
+     * Recover only the tail after a snapshot: segments up to afterSegment are
+     * already covered by it and are not replayed, and neither are records up
+     * to afterSequence. Covered segments up to deleteThroughSegment are deleted
+     * before they are ever mapped; the rest are kept, unmapped, for an older
+     * snapshot to fall back on, until removeSegmentsThrough drops them.
+     */
+    public synchronized long recover(Consumer<LedgerRecord> replay, long afterSegment, long afterSequence,
+                                     long deleteThroughSegment) throws IOException {
+        if (recovered) throw new IllegalStateException("Ledger already recovered");
+        Iterator<Path> files = existingFiles.iterator();
+        while (files.hasNext()) {
+            Path file = files.next();
+            long index = segmentIndex(file);
+            if (index <= Math.min(deleteThroughSegment, afterSegment)) {
+                Files.deleteIfExists(file);
+                files.remove();
+            } else if (index > afterSegment) {
+                segments.add(LedgerSegment.open(file, index, segmentRecords));
+                files.remove();
+            }
+        }
+        nextSequence = Math.max(nextSequence, afterSequence + 1);
+
+        // Validate in parallel, keeping only the (rare) VOIDs; a VOID follows the
+        // records it cancels, so all of them must be known before replaying
+        LedgerSegment newest = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        List<List<LedgerRecord>> voids;
+        try {
+            voids = segments.parallelStream()
+                    .map(segment -> {
+                        try {
+                            return segment.scan(segment == newest);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        voids.forEach(records -> records.forEach(this::noteVoid));
+
+        // Then stream each segment into replay in ledger order
+        long[] count = new long[1];
+        for (LedgerSegment segment : segments) {
+            segment.forEach(record -> {
+                nextSequence = Math.max(nextSequence, record.getSequence() + 1);
+                if (record.getSequence() <= afterSequence || !isLive(record)) return;
+                replay.accept(record);
+                count[0]++;
+            });
+        }
+
+        active = newest != null ? newest : newSegment(afterSegment + 1);
+        recovered = true;
+        return count[0];
+    }
+
+    /**
+     * Append one record; returns its sequence number.
+     */
+    public synchronized long append(LedgerRecord record) throws IOException {
+        if (!recovered) throw new IllegalStateException("Ledger not recovered yet");
+        int slots = record.slots();
+        if (!active.hasRoom(slots)) {
+            roll();
+        }
+        long sequence = nextSequence++;
+        record.encode(sequence, scratch, 0);
+        active.write(scratch, slots);
+        noteVoid(record);
+        return sequence;
+    }
+
+    /**
+     * Append a batch under one lock acquisition; returns the last sequence number.
+     */
+    public synchronized long appendAll(List<LedgerRecord> records) throws IOException {
+        long last = nextSequence - 1;
+        for (LedgerRecord record : records) {
+            last = append(record);
+        }
+        return last;
+    }
+
+    /**
+     * Seal the active segment (force it, start a new one) and return the
+     * sealed segment's index. Sealed segments are never written again, so
+     * they can be read concurrently with appends.
+     */
+    public synchronized long rollSegment() throws IOException {
+        if (active == null) throw new IOException("Ledger is closed");
+        long sealed = active.getIndex();
+        roll();
+        return sealed;
+    }
+
+    /**
+     * Read sealed segments in (afterSegment, throughSegment] in order. Segments
+     * kept unmapped at recovery for an older snapshot are mapped on demand.
+     * Throws if any segment in the range is missing, since the caller would
+     * otherwise build state with a hole in it.
+     */
+    public void readSealed(long afterSegment, long throughSegment, Consumer<LedgerRecord> reader) throws IOException {
+        List<LedgerSegment> sealed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Path> files = existingFiles.iterator();
+            while (files.hasNext()) {
+                Path file = files.next();
+                long index = segmentIndex(file);
+                if (index > afterSegment && index <= throughSegment) {
+                    LedgerSegment segment = LedgerSegment.open(file, index, segmentRecords);
+                    segment.scan(false).forEach(this::noteVoid);
+                    segments.add(segment);
+                    files.remove();
+                }
+            }
+            segments.sort(Comparator.comparingLong(LedgerSegment::getIndex));
+            long expected = afterSegment + 1;
+            for (LedgerSegment segment : segments) {
+                if (segment != active && segment.getIndex() > afterSegment && segment.getIndex() <= throughSegment) {
+                    if (segment.getIndex() != expected) {
+                        throw new IOException("Ledger segment " + expected + " is missing");
+                    }
+                    sealed.add(segment);
+                    expected++;
+                }
+            }
+            if (expected <= throughSegment) throw new IOException("Ledger segment " + expected + " is missing");
+        }
+        for (LedgerSegment segment : sealed) {
+            segment.forEach(record -> {
+                if (isLive(record)) reader.accept(record);
+            });
+        }
+    }
+
+    /**
+     * Close and delete sealed segments up to and including index.
+     *
+     * A closed segment stays mapped until its buffer is garbage collected, and
+     * some platforms (Windows) refuse to delete a mapped file. Such files are
+     * retried on later calls and on close(); if they survive a restart, the
+     * snapshot covers them and recover() deletes them before mapping anything.
+     */
+    public synchronized void removeSegmentsThrough(long index) throws IOException {
+        Iterator<LedgerSegment> it = segments.iterator();
+        while (it.hasNext()) {
+            LedgerSegment segment = it.next();
+            if (segment != active && segment.getIndex() <= index) {
+                segment.close();
+                it.remove();
+                pendingDeletes.add(segment.getPath());
+            }
+        }
+        Iterator<Path> files = existingFiles.iterator();
+        while (files.hasNext()) {
+            Path file = files.next();
+            if (segmentIndex(file) <= index) {
+                pendingDeletes.add(file);
+                files.remove();
+            }
+        }
+        retryDeletes();
+    }
+
+    private void retryDeletes() {
+        Iterator<Path> it = pendingDeletes.iterator();
+        while (it.hasNext()) {
+            try {
+                Files.deleteIfExists(it.next());
+                it.remove();
+            } catch (IOException e) {
+                // still mapped; try again next time
+            }
+        }
+    }
+
+    public synchronized void force() {
+        if (active != null) active.force();
+    }
+
+    /**
+     * Force everything appended so far and return the last sequence covered.
+     * Only the snapshot of the active segment is taken under the lock; the
+     * force itself runs unlocked so appends continue meanwhile. Earlier
+     * segments were already forced when they were rolled.
+     */
+    public long sync() throws IOException {
+        LedgerSegment segment;
+        long sequence;
+        synchronized (this) {
+            if (active == null) throw new IOException("Ledger is closed");
+            segment = active;
+            sequence = nextSequence - 1;
+        }
+        segment.force();
+        return sequence;
+    }
+
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (LedgerSegment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        active = null;
+        retryDeletes();
+    }
+
+    private void noteVoid(LedgerRecord record) {
+        if (record.getType() != LedgerRecord.Type.VOID) return;
+        synchronized (voided) {
+            voided.add(new long[] {record.getFirstVoidedSequence(), record.getLastVoidedSequence()});
+        }
+    }
+
+    /**
+     * False for VOID records and the records they cancel, which readers skip.
+     */
+    private boolean isLive(LedgerRecord record) {
+        if (record.getType() == LedgerRecord.Type.VOID) return false;
+        long sequence = record.getSequence();
+        synchronized (voided) {
+            for (long[] range : voided) {
+                if (sequence >= range[0] && sequence <= range[1]) return false;
+            }
+        }
+        return true;
+    }
+
+    private void roll() throws IOException {
+        active.force();
+        active = newSegment(active.getIndex() + 1);
+    }
+
+    private LedgerSegment newSegment(long index) throws IOException {
+        Path file = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        LedgerSegment segment = LedgerSegment.open(file, index, segmentRecords);
+        segments.add(segment);
+        return segment;
+    }
+
+    private static long segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
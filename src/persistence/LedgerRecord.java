@@ -0,0 +1,268 @@
+package persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * One fixed-size (64 byte) ledger entry. Records carry deltas, not balances,
+ * so replaying them in order rebuilds the exact in-memory state.
+ *
+ * Slot layout (big-endian):
+ *   0  type          1 byte
+ *   1  slot count    1 byte  (1 + name continuation slots)
+ *   4  CRC32C        4 bytes over the slot with this field zeroed
+ *   8  sequence      8 bytes
+ *   16 body          48 bytes, see the per-type offsets below
+ *
+ * A username that does not fit inline spills into continuation slots that
+ * are always written contiguously, in the same segment.
+ */
+public final class LedgerRecord {
+    public static final int SIZE = 64;
+
+    public enum Type {
+        USER_CREATED(1),
+        PURCHASE(2),
+        WINNING_NUMBER(3),
+        CREDIT(4),
+        // Cancels the records in [firstSequence, lastSequence] whose commit failed
+        VOID(5);
+
+        private static final Type[] VALUES = values();
+
+        private final int code;
+
+        Type(int code) {
+            this.code = code;
+        }
+
+        public int getCode() { return code; }
+
+        static Type fromCode(int code) {
+            for (Type type : VALUES) {
+                if (type.code == code) return type;
+            }
+            return null;
+        }
+    }
+
+    static final int NAME_CONTINUATION = 0x7F;
+
+    private static final int CRC_OFFSET = 4;
+    private static final int SEQ_OFFSET = 8;
+    private static final int BODY_OFFSET = 16;
+    // USER_CREATED keeps userId, balance and name length ahead of the inline name
+    private static final int NAME_OFFSET = BODY_OFFSET + 14;
+    private static final int INLINE_NAME_BYTES = SIZE - NAME_OFFSET;
+    private static final int CONTINUATION_NAME_BYTES = SIZE - BODY_OFFSET;
+    static final int MAX_SLOTS = 255;
+    private static final int NUMBER_COUNT = 5;
+
+    private final Type type;
+    private long sequence;
+    private final int userId;
+    private final int ticketId;
+    private final long amountCents;
+    private final long time;
+    private final int winningNumber;
+    private final int[] numbers;
+    private final String username;
+
+    private LedgerRecord(Type type, int userId, int ticketId, long amountCents, long time,
+                         int winningNumber, int[] numbers, String username) {
+        this.type = type;
+        this.userId = userId;
+        this.ticketId = ticketId;
+        this.amountCents = amountCents;
+        this.time = time;
+        this.winningNumber = winningNumber;
+        this.numbers = numbers;
+        this.username = username;
+    }
+
+    public static LedgerRecord userCreated(int userId, String username, long balanceCents) {
+        return new LedgerRecord(Type.USER_CREATED, userId, 0, balanceCents, 0L, 0, null, username);
+    }
+
+    public static LedgerRecord purchase(int ticketId, int userId, long priceCents, long time, int[] numbers) {
+        if (numbers.length != NUMBER_COUNT) {
+            throw new IllegalArgumentException("Expected " + NUMBER_COUNT + " numbers, got " + numbers.length);
+        }
+        return new LedgerRecord(Type.PURCHASE, userId, ticketId, priceCents, time, 0, numbers, null);
+    }
+
+    public static LedgerRecord winningNumber(int number, long time) {
+        return new LedgerRecord(Type.WINNING_NUMBER, 0, 0, 0L, time, number, null, null);
+    }
+
+    public static LedgerRecord credit(int ticketId, int userId, long amountCents) {
+        return new LedgerRecord(Type.CREDIT, userId, ticketId, amountCents, 0L, 0, null, null);
+    }
+
+    /**
+     * Compensating record for appended records whose commit failed, so the
+     * caller's rollback holds after a restart too. The range is kept in the
+     * amount and time fields.
+     */
+    public static LedgerRecord voided(long firstSequence, long lastSequence) {
+        return new LedgerRecord(Type.VOID, 0, 0, firstSequence, lastSequence, 0, null, null);
+    }
+
+    public Type getType() { return type; }
+    public long getSequence() { return sequence; }
+    public int getUserId() { return userId; }
+    public int getTicketId() { return ticketId; }
+    public long getAmountCents() { return amountCents; }
+    public long getTime() { return time; }
+    public int getWinningNumber() { return winningNumber; }
+    public int[] getNumbers() { return numbers; }
+    public String getUsername() { return username; }
+    public long getFirstVoidedSequence() { return amountCents; }
+    public long getLastVoidedSequence() { return time; }
+
+    /**
+     * Number of 64-byte slots this record occupies.
+     */
+    int slots() {
+        if (type != Type.USER_CREATED) return 1;
+        int nameBytes = username.getBytes(StandardCharsets.UTF_8).length;
+        if (nameBytes <= INLINE_NAME_BYTES) return 1;
+        return 1 + (nameBytes - INLINE_NAME_BYTES + CONTINUATION_NAME_BYTES - 1) / CONTINUATION_NAME_BYTES;
+    }
+
+    /**
+     * Serialize into dst starting at offset; dst must hold slots() * SIZE bytes.
+     */
+    void encode(long sequence, byte[] dst, int offset) {
+        this.sequence = sequence;
+        int slots = slots();
+        if (slots > MAX_SLOTS) {
+            throw new IllegalArgumentException("Username too long for the ledger: " + username.length());
+        }
+        Arrays.fill(dst, offset, offset + slots * SIZE, (byte) 0);
+        ByteBuffer buf = ByteBuffer.wrap(dst, offset, slots * SIZE).slice();
+
+        buf.put(0, (byte) type.code);
+        buf.put(1, (byte) slots);
+        buf.putLong(SEQ_OFFSET, sequence);
+        switch (type) {
+            case USER_CREATED: {
+                byte[] name = username.getBytes(StandardCharsets.UTF_8);
+                buf.putInt(BODY_OFFSET, userId);
+                buf.putLong(BODY_OFFSET + 4, amountCents);
+                buf.putShort(BODY_OFFSET + 12, (short) name.length);
+                int copied = Math.min(name.length, INLINE_NAME_BYTES);
+                System.arraycopy(name, 0, dst, offset + NAME_OFFSET, copied);
+                for (int slot = 1; slot < slots; slot++) {
+                    int base = slot * SIZE;
+                    buf.put(base, (byte) NAME_CONTINUATION);
+                    buf.put(base + 1, (byte) slots);
+                    buf.putLong(base + SEQ_OFFSET, sequence);
+                    int chunk = Math.min(name.length - copied, CONTINUATION_NAME_BYTES);
+                    System.arraycopy(name, copied, dst, offset + base + BODY_OFFSET, chunk);
+                    copied += chunk;
+                }
+                break;
+            }
+            case PURCHASE:
+                buf.putInt(BODY_OFFSET, ticketId);
+                buf.putInt(BODY_OFFSET + 4, userId);
+                buf.putLong(BODY_OFFSET + 8, amountCents);
+                buf.putLong(BODY_OFFSET + 16, time);
+                for (int i = 0; i < NUMBER_COUNT; i++) {
+                    buf.put(BODY_OFFSET + 24 + i, (byte) numbers[i]);
+                }
+                break;
+            case WINNING_NUMBER:
+                buf.putInt(BODY_OFFSET, winningNumber);
+                buf.putLong(BODY_OFFSET + 16, time);
+                break;
+            case CREDIT:
+                buf.putInt(BODY_OFFSET, ticketId);
+                buf.putInt(BODY_OFFSET + 4, userId);
+                buf.putLong(BODY_OFFSET + 8, amountCents);
+                break;
+            case VOID:
+                buf.putLong(BODY_OFFSET, amountCents);
+                buf.putLong(BODY_OFFSET + 8, time);
+                break;
+        }
+
+        for (int slot = 0; slot < slots; slot++) {
+            buf.putInt(slot * SIZE + CRC_OFFSET, checksum(dst, offset + slot * SIZE));
+        }
+    }
+
+    /**
+     * Slot count declared by the slot at offset, or 0 if it is empty or fails its checksum.
+     */
+    static int validSlot(byte[] src, int offset) {
+        int typeCode = src[offset] & 0xFF;
+        if (typeCode == 0) return 0;
+        int stored = ByteBuffer.wrap(src, offset + CRC_OFFSET, 4).getInt();
+        if (stored != checksum(src, offset)) return 0;
+        return src[offset + 1] & 0xFF;
+    }
+
+    static boolean isContinuation(byte[] src, int offset) {
+        return (src[offset] & 0xFF) == NAME_CONTINUATION;
+    }
+
+    /**
+     * Decode a record whose slots (already checksum-verified) start at offset.
+     */
+    static LedgerRecord decode(byte[] src, int offset) {
+        ByteBuffer buf = ByteBuffer.wrap(src, offset, src.length - offset).slice();
+        Type type = Type.fromCode(buf.get(0) & 0xFF);
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown ledger record type " + (buf.get(0) & 0xFF));
+        }
+        LedgerRecord record;
+        switch (type) {
+            case USER_CREATED: {
+                int slots = buf.get(1) & 0xFF;
+                byte[] name = new byte[buf.getShort(BODY_OFFSET + 12) & 0xFFFF];
+                int copied = Math.min(name.length, INLINE_NAME_BYTES);
+                System.arraycopy(src, offset + NAME_OFFSET, name, 0, copied);
+                for (int slot = 1; slot < slots; slot++) {
+                    int chunk = Math.min(name.length - copied, CONTINUATION_NAME_BYTES);
+                    System.arraycopy(src, offset + slot * SIZE + BODY_OFFSET, name, copied, chunk);
+                    copied += chunk;
+                }
+                record = userCreated(buf.getInt(BODY_OFFSET), new String(name, StandardCharsets.UTF_8),
+                        buf.getLong(BODY_OFFSET + 4));
+                break;
+            }
+            case PURCHASE: {
+                int[] numbers = new int[NUMBER_COUNT];
+                for (int i = 0; i < NUMBER_COUNT; i++) {
+                    numbers[i] = buf.get(BODY_OFFSET + 24 + i);
+                }
+                record = purchase(buf.getInt(BODY_OFFSET), buf.getInt(BODY_OFFSET + 4),
+                        buf.getLong(BODY_OFFSET + 8), buf.getLong(BODY_OFFSET + 16), numbers);
+                break;
+            }
+            case WINNING_NUMBER:
+                record = winningNumber(buf.getInt(BODY_OFFSET), buf.getLong(BODY_OFFSET + 16));
+                break;
+            case VOID:
+                record = voided(buf.getLong(BODY_OFFSET), buf.getLong(BODY_OFFSET + 8));
+                break;
+            case CREDIT:
+            default:
+                record = credit(buf.getInt(BODY_OFFSET), buf.getInt(BODY_OFFSET + 4), buf.getLong(BODY_OFFSET + 8));
+                break;
+        }
+        record.sequence = buf.getLong(SEQ_OFFSET);
+        return record;
+    }
+
+    private static int checksum(byte[] src, int offset) {
+        CRC32C crc = new CRC32C();
+        crc.update(src, offset, CRC_OFFSET);
+        crc.update(src, offset + SEQ_OFFSET, SIZE - SEQ_OFFSET);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,149 @@
+package persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * One memory-mapped ledger file holding a fixed number of 64-byte slots.
+ * Only the ledger's single writer touches writeSlot; scans run before any
+ * appends and readers stop at writeSlot, so segments need no locking of
+ * their own.
+ */
+class LedgerSegment {
+    private final long index;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int writeSlot;
+
+    private LedgerSegment(long index, Path path, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.index = index;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    static LedgerSegment open(Path path, long index, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // An existing segment keeps its own size even if the configured capacity changed
+        long existing = channel.size();
+        int slots = existing > 0 ? (int) (existing / LedgerRecord.SIZE) : capacity;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * LedgerRecord.SIZE);
+        return new LedgerSegment(index, path, channel, buffer, slots);
+    }
+
+    long getIndex() { return index; }
+    Path getPath() { return path; }
+    int getWriteSlot() { return writeSlot; }
+
+    boolean hasRoom(int slots) {
+        return writeSlot + slots <= capacity;
+    }
+
+    void write(byte[] src, int slots) {
+        buffer.position(writeSlot * LedgerRecord.SIZE);
+        buffer.put(src, 0, slots * LedgerRecord.SIZE);
+        writeSlot += slots;
+    }
+
+    /**
+     * Validate the segment at startup, set writeSlot after its last record and
+     * return the VOID records it holds.
+     *
+     * Only the newest segment can have a torn tail after a crash: a record
+     * whose page never made it to disk. There the first empty or corrupt slot
+     * ends the segment and everything after it is zeroed so appends resume
+     * cleanly. Older segments were forced when they were rolled, so anything
+     * but zeros after their last record is corruption and fails recovery
+     * rather than silently dropping acknowledged records.
+     */
+    List<LedgerRecord> scan(boolean newest) throws IOException {
+        List<LedgerRecord> voids = new ArrayList<>();
+        writeSlot = read(capacity, record -> {
+            if (record.getType() == LedgerRecord.Type.VOID) voids.add(record);
+        });
+        if (newest) {
+            clearTail(buffer.duplicate());
+        } else {
+            int bad = firstNonEmptySlot(buffer.duplicate(), writeSlot);
+            if (bad >= 0) {
+                throw new IOException("Corrupt record in sealed ledger segment " + path.getFileName()
+                        + " at slot " + bad + " (last good slot " + (writeSlot - 1) + ")");
+            }
+        }
+        return voids;
+    }
+
+    /**
+     * Hand every record up to writeSlot to reader in slot order. Used for
+     * replay after scan() and for read-only passes over sealed segments.
+     */
+    void forEach(Consumer<LedgerRecord> reader) {
+        read(writeSlot, reader);
+    }
+
+    private int read(int limit, Consumer<LedgerRecord> reader) {
+        ByteBuffer view = buffer.duplicate();
+        byte[] slotBytes = new byte[LedgerRecord.SIZE * LedgerRecord.MAX_SLOTS];
+        int slot = 0;
+        while (slot < limit) {
+            view.position(slot * LedgerRecord.SIZE);
+            view.get(slotBytes, 0, LedgerRecord.SIZE);
+            int slots = LedgerRecord.validSlot(slotBytes, 0);
+            if (slots == 0 || LedgerRecord.isContinuation(slotBytes, 0) || slot + slots > limit) break;
+
+            boolean complete = true;
+            for (int extra = 1; extra < slots; extra++) {
+                int at = extra * LedgerRecord.SIZE;
+                view.get(slotBytes, at, LedgerRecord.SIZE);
+                if (LedgerRecord.validSlot(slotBytes, at) != slots || !LedgerRecord.isContinuation(slotBytes, at)) {
+                    complete = false;
+                    break;
+                }
+            }
+            if (!complete) break;
+
+            reader.accept(LedgerRecord.decode(slotBytes, 0));
+            slot += slots;
+        }
+        return slot;
+    }
+
+    /**
+     * First slot at or after from holding any non-zero byte, or -1.
+     */
+    private int firstNonEmptySlot(ByteBuffer view, int from) {
+        for (int offset = from * LedgerRecord.SIZE; offset < capacity * LedgerRecord.SIZE; offset += 8) {
+            if (view.getLong(offset) != 0) return offset / LedgerRecord.SIZE;
+        }
+        return -1;
+    }
+
+    private void clearTail(ByteBuffer view) {
+        // Pages reach the disk in any order, so records may survive past the hole
+        byte[] empty = new byte[LedgerRecord.SIZE];
+        for (int slot = firstNonEmptySlot(view, writeSlot); slot >= 0; slot = firstNonEmptySlot(view, slot + 1)) {
+            view.position(slot * LedgerRecord.SIZE);
+            view.put(empty);
+        }
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
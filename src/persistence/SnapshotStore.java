@@ -0,0 +1,194 @@
+package persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary state snapshots (snapshot-NNNNNNNN.snap, numbered by the last ledger
+ * segment they cover). The body format belongs to the caller; this class adds
+ * a header with the covered sequence/segment and a CRC32C trailer, and writes
+ * via a temp file plus atomic rename so a crash never leaves a half snapshot.
+ */
+public class SnapshotStore {
+    public static final String INTERVAL_PROPERTY = "lottery.snapshot.intervalSeconds";
+    public static final long DEFAULT_INTERVAL_SECONDS = 300;
+
+    private static final int MAGIC = 0x4C534E50; // "LSNP"
+    private static final int VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    public interface BodyWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public interface BodyReader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * A snapshot on disk and the ledger position it covers.
+     */
+    public static class Snapshot {
+        private final Path path;
+        private final long lastSegment;
+
+        Snapshot(Path path, long lastSegment) {
+            this.path = path;
+            this.lastSegment = lastSegment;
+        }
+
+        public Path getPath() { return path; }
+        public long getLastSegment() { return lastSegment; }
+    }
+
+    private final Path directory;
+
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Snapshots on disk, newest first.
+     */
+    public List<Snapshot> list() throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    long segment = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                    snapshots.add(new Snapshot(file, segment));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        snapshots.sort(Comparator.comparingLong(Snapshot::getLastSegment).reversed());
+        return snapshots;
+    }
+
+    public void write(long lastSequence, long lastSegment, BodyWriter body) throws IOException {
+        Path target = directory.resolve(String.format("%s%08d%s", PREFIX, lastSegment, SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lastSequence);
+            out.writeLong(lastSegment);
+            body.write(out);
+            out.flush();
+            // Trailer goes straight to the channel, outside the checksum
+            new DataOutputStream(Channels.newOutputStream(channel)).writeInt((int) checked.getChecksum().getValue());
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read a snapshot body after checking its header; returns the last ledger
+     * sequence it covers. Throws if the file is truncated or corrupt.
+     */
+    public long read(Snapshot snapshot, BodyReader body) throws IOException {
+        long size = Files.size(snapshot.getPath());
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(snapshot.getPath()), 1 << 16)) {
+            // Everything but the 4-byte trailer goes through the checksum
+            CheckedInputStream checked = new CheckedInputStream(new BoundedInputStream(file, size - 4), new CRC32C());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a snapshot file: " + snapshot.getPath());
+            }
+            long lastSequence = in.readLong();
+            long lastSegment = in.readLong();
+            if (lastSegment != snapshot.getLastSegment()) {
+                throw new IOException("Snapshot name does not match its header: " + snapshot.getPath());
+            }
+            body.read(in);
+            while (in.read() >= 0) {
+                // drain so the checksum covers the full body
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            int stored = new DataInputStream(file).readInt();
+            if (stored != expected) {
+                throw new IOException("Snapshot checksum mismatch: " + snapshot.getPath());
+            }
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Delete every snapshot older than the given segment.
+     */
+    public void deleteOlderThan(long lastSegment) throws IOException {
+        for (Snapshot snapshot : list()) {
+            if (snapshot.getLastSegment() < lastSegment) {
+                Files.deleteIfExists(snapshot.getPath());
+            }
+        }
+    }
+
+    /**
+     * Move an unreadable snapshot out of the way (to NAME.snap.bad) so it is
+     * no longer listed, but kept for inspection.
+     */
+    public Path quarantine(Snapshot snapshot) throws IOException {
+        Path target = snapshot.getPath().resolveSibling(snapshot.getPath().getFileName() + ".bad");
+        Files.move(snapshot.getPath(), target, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stops at limit bytes so the trailer is left in the underlying stream.
+     */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocol actions as sent in the "action" field of a Request.
+ * Lets request handlers switch on an enum instead of comparing strings.
+ */
+public enum Action {
+    LOGIN("login", 1),
+    BUY_TICKET("buyTicket", 2),
+    BUY_TICKETS("buyTickets", 3),
+    CHECK_RESULT("checkResult", 4),
+    ADMIN_LOGIN("adminLogin", 5),
+    SET_WINNING_NUMBER("setWinningNumber", 6),
+    VIEW_TICKETS("viewTickets", 7),
+    ANNOUNCE_RESULTS("announceResults", 8),
+    UNKNOWN("unknown", 0);
+
+    private static final Action[] VALUES = values();
+
+    private final String wireName;
+    private final byte[] wireBytes;
+    // Fixed opcode for the binary protocol; never reuse a retired value
+    private final int opcode;
+
+    Action(String wireName, int opcode) {
+        this.wireName = wireName;
+        this.wireBytes = wireName.getBytes(StandardCharsets.US_ASCII);
+        this.opcode = opcode;
+    }
+
+    public String getWireName() { return wireName; }
+    public int getOpcode() { return opcode; }
+
+    public static Action fromOpcode(int opcode) {
+        for (Action action : VALUES) {
+            if (action.opcode == opcode) return action;
+        }
+        return UNKNOWN;
+    }
+
+    public static Action fromWire(String name) {
+        if (name != null) {
+            for (Action action : VALUES) {
+                if (action != UNKNOWN && action.wireName.equals(name)) return action;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Match an action name straight from a byte buffer without creating a String.
+     */
+    public static Action fromWire(byte[] buf, int off, int len) {
+        for (Action action : VALUES) {
+            if (action != UNKNOWN && ByteSink.regionEquals(action.wireBytes, buf, off, len)) return action;
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,272 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary framing for Request/Response, an alternative to JSON lines on
+ * the TCP port. A client opts in by sending HANDSHAKE as the very first byte of
+ * the connection; the server answers with the same byte. Anything else (a JSON
+ * client starts with '{') keeps the connection on JSON.
+ *
+ * Frame:    varint payload length, payload
+ * Request:  opcode byte, field mask byte, fields in mask order
+ *           (username, password: varint length + UTF-8; winningNumber: zigzag varint;
+ *            count: varint)
+ * Response: status byte (0 success, 1 error, 2 other + string), field mask varint,
+ *           fields in mask order (balance in cents as zigzag varint, ids as varints,
+ *           ticket numbers packed one byte each)
+ */
+public final class BinaryCodec {
+    public static final int HANDSHAKE = 0xB1;
+    // Leaves room for the length prefix inside the servers' 64 KB read buffers
+    public static final int MAX_FRAME_LENGTH = 60 * 1024;
+
+    private static final int REQ_USERNAME = 1;
+    private static final int REQ_PASSWORD = 1 << 1;
+    private static final int REQ_WINNING_NUMBER = 1 << 2;
+    private static final int REQ_COUNT = 1 << 3;
+
+    private static final int RESP_MESSAGE = 1;
+    private static final int RESP_BALANCE = 1 << 1;
+    private static final int RESP_TICKET_NUMBER = 1 << 2;
+    private static final int RESP_TICKET_ID = 1 << 3;
+    private static final int RESP_TICKET_NUMBERS = 1 << 4;
+    private static final int RESP_TICKET_COUNT = 1 << 5;
+    private static final int RESP_TICKET_NUMBER_SETS = 1 << 6;
+
+    private static final int STATUS_SUCCESS = 0;
+    private static final int STATUS_ERROR = 1;
+    private static final int STATUS_OTHER = 2;
+
+    private final byte[] buf;
+    private int pos;
+    private final int end;
+
+    private BinaryCodec(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.pos = off;
+        this.end = off + len;
+    }
+
+    /**
+     * Total size (prefix + payload) of the frame starting at off, or -1 if it
+     * has not been fully received yet.
+     * @throws IllegalArgumentException if the declared length exceeds MAX_FRAME_LENGTH
+     */
+    public static int frameLength(byte[] buf, int off, int len) {
+        long length = 0;
+        int shift = 0;
+        for (int i = 0; i < len && i < 5; i++) {
+            byte b = buf[off + i];
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (length > MAX_FRAME_LENGTH) throw new IllegalArgumentException("Frame too large: " + length);
+                int total = i + 1 + (int) length;
+                return total <= len ? total : -1;
+            }
+            shift += 7;
+        }
+        if (len >= 5) throw new IllegalArgumentException("Bad frame length");
+        return -1;
+    }
+
+    /**
+     * Size of the varint length prefix of a complete frame starting at off.
+     */
+    public static int headerLength(byte[] buf, int off) {
+        int n = 1;
+        while ((buf[off + n - 1] & 0x80) != 0) n++;
+        return n;
+    }
+
+    /**
+     * Read one frame's payload from a blocking stream; null on clean end of stream.
+     */
+    public static byte[] readFrame(InputStream in) throws IOException {
+        long length = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                if (shift == 0) return null;
+                throw new EOFException("Truncated frame length");
+            }
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+            if (shift > 28) throw new IOException("Bad frame length");
+        }
+        if (length > MAX_FRAME_LENGTH) throw new IOException("Frame too large: " + length);
+        byte[] payload = new byte[(int) length];
+        int read = 0;
+        while (read < payload.length) {
+            int n = in.read(payload, read, payload.length - read);
+            if (n == -1) throw new EOFException("Truncated frame");
+            read += n;
+        }
+        return payload;
+    }
+
+    // ---- Requests ----
+
+    public static void encodeRequest(Request request, ByteSink out) {
+        int start = out.size();
+        int mask = 0;
+        if (request.getUsername() != null) mask |= REQ_USERNAME;
+        if (request.getPassword() != null) mask |= REQ_PASSWORD;
+        if (request.getWinningNumber() != 0) mask |= REQ_WINNING_NUMBER;
+        if (request.getCount() != 0) mask |= REQ_COUNT;
+
+        out.writeByte(request.getActionType().getOpcode());
+        out.writeByte(mask);
+        if ((mask & REQ_USERNAME) != 0) writeString(out, request.getUsername());
+        if ((mask & REQ_PASSWORD) != 0) writeString(out, request.getPassword());
+        if ((mask & REQ_WINNING_NUMBER) != 0) out.writeVarint(zigzag(request.getWinningNumber()));
+        if ((mask & REQ_COUNT) != 0) out.writeVarint(request.getCount() & 0xFFFFFFFFL);
+        out.prefixLength(start);
+    }
+
+    /**
+     * Decode a request payload (without its length prefix).
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public static Request decodeRequest(byte[] buf, int off, int len) {
+        BinaryCodec in = new BinaryCodec(buf, off, len);
+        Request request = new Request(null);
+        request.setActionType(Action.fromOpcode(in.readByte()));
+        int mask = in.readByte();
+        if ((mask & REQ_USERNAME) != 0) request.setUsername(in.readString());
+        if ((mask & REQ_PASSWORD) != 0) request.setPassword(in.readString());
+        if ((mask & REQ_WINNING_NUMBER) != 0) request.setWinningNumber((int) unzigzag(in.readVarint()));
+        if ((mask & REQ_COUNT) != 0) request.setCount((int) in.readVarint());
+        return request;
+    }
+
+    // ---- Responses ----
+
+    public static void encodeResponse(Response response, ByteSink out) {
+        int start = out.size();
+        String status = response.getStatus();
+        int mask = 0;
+        if (response.getMessage() != null) mask |= RESP_MESSAGE;
+        if (response.getBalance() != null) mask |= RESP_BALANCE;
+        if (response.getTicketNumber() != null) mask |= RESP_TICKET_NUMBER;
+        if (response.getTicketId() != null) mask |= RESP_TICKET_ID;
+        if (response.ticketNumbersRef() != null) mask |= RESP_TICKET_NUMBERS;
+        if (response.getTicketCount() != null) mask |= RESP_TICKET_COUNT;
+        if (response.getTicketNumberSets() != null) mask |= RESP_TICKET_NUMBER_SETS;
+
+        if ("success".equals(status)) {
+            out.writeByte(STATUS_SUCCESS);
+        } else if ("error".equals(status)) {
+            out.writeByte(STATUS_ERROR);
+        } else {
+            out.writeByte(STATUS_OTHER);
+            writeString(out, status != null ? status : "");
+        }
+        out.writeVarint(mask);
+        if ((mask & RESP_MESSAGE) != 0) writeString(out, response.getMessage());
+        if ((mask & RESP_BALANCE) != 0) out.writeVarint(zigzag(Math.round(response.getBalance() * 100)));
+        if ((mask & RESP_TICKET_NUMBER) != 0) out.writeVarint(zigzag(response.getTicketNumber()));
+        if ((mask & RESP_TICKET_ID) != 0) out.writeVarint(zigzag(response.getTicketId()));
+        if ((mask & RESP_TICKET_NUMBERS) != 0) writePackedNumbers(out, response.ticketNumbersRef());
+        if ((mask & RESP_TICKET_COUNT) != 0) out.writeVarint(zigzag(response.getTicketCount()));
+        if ((mask & RESP_TICKET_NUMBER_SETS) != 0) {
+            int[][] sets = response.getTicketNumberSets();
+            out.writeVarint(sets.length);
+            for (int[] set : sets) {
+                writePackedNumbers(out, set);
+            }
+        }
+        out.prefixLength(start);
+    }
+
+    public static Response decodeResponse(byte[] buf, int off, int len) {
+        BinaryCodec in = new BinaryCodec(buf, off, len);
+        int statusCode = in.readByte();
+        String status = statusCode == STATUS_SUCCESS ? "success"
+                : statusCode == STATUS_ERROR ? "error" : in.readString();
+        int mask = (int) in.readVarint();
+        String message = (mask & RESP_MESSAGE) != 0 ? in.readString() : null;
+        Response response = new Response(status, message);
+        if ((mask & RESP_BALANCE) != 0) response.setBalance(unzigzag(in.readVarint()) / 100.0);
+        if ((mask & RESP_TICKET_NUMBER) != 0) response.setTicketNumber((int) unzigzag(in.readVarint()));
+        if ((mask & RESP_TICKET_ID) != 0) response.setTicketId((int) unzigzag(in.readVarint()));
+        if ((mask & RESP_TICKET_NUMBERS) != 0) response.setTicketNumbers(in.readPackedNumbers());
+        if ((mask & RESP_TICKET_COUNT) != 0) response.setTicketCount((int) unzigzag(in.readVarint()));
+        if ((mask & RESP_TICKET_NUMBER_SETS) != 0) {
+            int[][] sets = new int[in.readLength()][];
+            for (int i = 0; i < sets.length; i++) {
+                sets[i] = in.readPackedNumbers();
+            }
+            response.setTicketNumberSets(sets);
+        }
+        return response;
+    }
+
+    // ---- Primitives ----
+
+    private static void writeString(ByteSink out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeVarint(bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    // Lottery numbers are 1-10, so one byte per number is enough
+    private static void writePackedNumbers(ByteSink out, int[] numbers) {
+        out.writeVarint(numbers.length);
+        for (int number : numbers) {
+            if (number < 0 || number > 0xFF) {
+                throw new IllegalArgumentException("Ticket number does not fit in a byte: " + number);
+            }
+            out.writeByte(number);
+        }
+    }
+
+    private int readByte() {
+        if (pos >= end) throw new IllegalArgumentException("Truncated payload");
+        return buf[pos++] & 0xFF;
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    private int readLength() {
+        long length = readVarint();
+        if (length > end - pos) throw new IllegalArgumentException("Length exceeds payload");
+        return (int) length;
+    }
+
+    private String readString() {
+        int length = readLength();
+        String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    private int[] readPackedNumbers() {
+        int[] numbers = new int[readLength()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = buf[pos++] & 0xFF;
+        }
+        return numbers;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,231 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that the codecs write JSON into directly, so a response
+ * never exists as an intermediate String. Meant to be reused per connection.
+ */
+public final class ByteSink {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes();
+    // Largest array size the JVMs we run on reliably allocate
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private byte[] buf;
+    private int size;
+
+    public ByteSink() {
+        this(256);
+    }
+
+    public ByteSink(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public int size() { return size; }
+    public byte[] array() { return buf; }
+    public void reset() { size = 0; }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    public void writeTo(ByteBuffer target) {
+        target.put(buf, 0, size);
+    }
+
+    public ByteSink writeByte(int b) {
+        ensure(1);
+        buf[size++] = (byte) b;
+        return this;
+    }
+
+    public ByteSink writeBytes(byte[] bytes) {
+        return writeBytes(bytes, 0, bytes.length);
+    }
+
+    public ByteSink writeBytes(byte[] bytes, int off, int len) {
+        ensure(len);
+        System.arraycopy(bytes, off, buf, size, len);
+        size += len;
+        return this;
+    }
+
+    /**
+     * Write a string known to be plain ASCII (keys, literals) without escaping.
+     */
+    public ByteSink writeAscii(String s) {
+        int len = s.length();
+        ensure(len);
+        for (int i = 0; i < len; i++) {
+            buf[size++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public ByteSink writeInt(int value) {
+        return writeLong(value);
+    }
+
+    public ByteSink writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return writeBytes(LONG_MIN);
+        }
+        ensure(20);
+        if (value < 0) {
+            buf[size++] = '-';
+            value = -value;
+        }
+        int start = size;
+        do {
+            buf[size++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        return this;
+    }
+
+    /**
+     * Same text as Double.toString (and therefore Gson), with an allocation-free
+     * path for whole numbers such as balances.
+     */
+    public ByteSink writeDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e7 && !(value == 0 && 1 / value < 0)) {
+            writeLong((long) value);
+            return writeAscii(".0");
+        }
+        return writeAscii(Double.toString(value));
+    }
+
+    /**
+     * Write a quoted JSON string using Gson's default (HTML-safe) escaping so the
+     * wire format is unchanged.
+     */
+    public ByteSink writeJsonString(String s) {
+        int len = s.length();
+        ensure(len + 2);
+        buf[size++] = '"';
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '"': writeByte('\\').writeByte('"'); break;
+                    case '\\': writeByte('\\').writeByte('\\'); break;
+                    case '\n': writeByte('\\').writeByte('n'); break;
+                    case '\r': writeByte('\\').writeByte('r'); break;
+                    case '\t': writeByte('\\').writeByte('t'); break;
+                    case '\b': writeByte('\\').writeByte('b'); break;
+                    case '\f': writeByte('\\').writeByte('f'); break;
+                    case '<': case '>': case '&': case '=': case '\'':
+                        writeUnicodeEscape(c);
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            writeUnicodeEscape(c);
+                        } else {
+                            writeByte(c);
+                        }
+                }
+            } else if (c == 0x2028 || c == 0x2029) {
+                writeUnicodeEscape(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[size++] = (byte) (0xC0 | (c >> 6));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[size++] = (byte) (0xF0 | (cp >> 18));
+                buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                writeByte('?');
+            } else {
+                ensure(3);
+                buf[size++] = (byte) (0xE0 | (c >> 12));
+                buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return writeByte('"');
+    }
+
+    /**
+     * Unsigned LEB128 varint, as used by the binary protocol.
+     */
+    public ByteSink writeVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Varint-encode bytes [start, size) in front of themselves as a length prefix.
+     */
+    public void prefixLength(int start) {
+        int length = size - start;
+        int prefix = varintSize(length);
+        ensure(prefix);
+        System.arraycopy(buf, start, buf, start + prefix, length);
+        int end = size + prefix;
+        size = start;
+        writeVarint(length);
+        size = end;
+    }
+
+    static int varintSize(long value) {
+        int n = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private void writeUnicodeEscape(char c) {
+        ensure(6);
+        buf[size++] = '\\';
+        buf[size++] = 'u';
+        buf[size++] = HEX[(c >> 12) & 0xF];
+        buf[size++] = HEX[(c >> 8) & 0xF];
+        buf[size++] = HEX[(c >> 4) & 0xF];
+        buf[size++] = HEX[c & 0xF];
+    }
+
+    private void ensure(int extra) {
+        long needed = (long) size + extra;
+        if (needed > buf.length) {
+            if (needed > MAX_CAPACITY) {
+                throw new OutOfMemoryError("ByteSink cannot grow past " + MAX_CAPACITY + " bytes");
+            }
+            // Doubling is done in long arithmetic so it cannot wrap past 1 GB
+            buf = Arrays.copyOf(buf, (int) Math.min(MAX_CAPACITY, Math.max(2L * buf.length, needed)));
+        }
+    }
+
+    static boolean regionEquals(byte[] expected, byte[] buf, int off, int len) {
+        if (expected.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (expected[i] != buf[off + i]) return false;
+        }
+        return true;
+    }
+}
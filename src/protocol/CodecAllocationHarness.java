@@ -0,0 +1,91 @@
+package protocol;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reproducible allocation comparison of the streaming codecs against the
+ * Gson path they replaced, on the messages the TCP server handles most.
+ *
+ * Each case runs a warm-up, then measures bytes allocated per operation on
+ * the calling thread (com.sun.management.ThreadMXBean) and the time per
+ * operation. Run it with the JIT in its normal configuration; escape
+ * analysis is part of what is being measured.
+ *
+ * Usage: java protocol.CodecAllocationHarness [iterations] (default 1000000)
+ */
+public class CodecAllocationHarness {
+    private static final byte[] BUY_REQUEST =
+            "{\"action\":\"buyTicket\",\"username\":\"alice@example.com\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BUY_TICKETS_REQUEST =
+            "{\"action\":\"buyTickets\",\"username\":\"alice@example.com\",\"count\":5}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    // Keeps results reachable so the JIT cannot drop the work
+    private static volatile Object sink;
+
+    private interface Operation {
+        void run();
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Response ticket = new Response("success", "Ticket purchased");
+        ticket.setTicketId(1042);
+        ticket.setTicketNumbers(new int[] {3, 7, 1, 9, 4});
+        ticket.setBalance(90.0);
+        Response batch = new Response("success", "Tickets purchased");
+        batch.setTicketId(1043);
+        batch.setTicketCount(5);
+        batch.setTicketNumberSets(new int[][] {{1, 2, 3, 4, 5}, {6, 7, 8, 9, 10}, {2, 4, 6, 8, 10},
+                {1, 3, 5, 7, 9}, {5, 5, 5, 5, 5}});
+        batch.setBalance(40.0);
+        ByteSink out = new ByteSink(256);
+
+        System.out.printf("%-40s %12s %10s%n", "case", "bytes/op", "ns/op");
+        measure(threads, iterations, "decode buyTicket: Gson",
+                () -> sink = MessageParser.parseRequest(new String(BUY_REQUEST, StandardCharsets.UTF_8)));
+        measure(threads, iterations, "decode buyTicket: RequestCodec",
+                () -> sink = RequestCodec.decode(BUY_REQUEST));
+        measure(threads, iterations, "decode buyTickets: Gson",
+                () -> sink = MessageParser.parseRequest(new String(BUY_TICKETS_REQUEST, StandardCharsets.UTF_8)));
+        measure(threads, iterations, "decode buyTickets: RequestCodec",
+                () -> sink = RequestCodec.decode(BUY_TICKETS_REQUEST));
+        measure(threads, iterations, "encode ticket: Gson",
+                () -> sink = MessageParser.toJson(ticket).getBytes(StandardCharsets.UTF_8));
+        measure(threads, iterations, "encode ticket: ResponseCodec+ByteSink",
+                () -> {
+                    out.reset();
+                    ResponseCodec.encode(ticket, out);
+                    sink = out;
+                });
+        measure(threads, iterations, "encode batch: Gson",
+                () -> sink = MessageParser.toJson(batch).getBytes(StandardCharsets.UTF_8));
+        measure(threads, iterations, "encode batch: ResponseCodec+ByteSink",
+                () -> {
+                    out.reset();
+                    ResponseCodec.encode(batch, out);
+                    sink = out;
+                });
+    }
+
+    private static void measure(com.sun.management.ThreadMXBean threads, int iterations, String name,
+                                Operation operation) {
+        for (int i = 0; i < Math.min(iterations, 200_000); i++) {
+            operation.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        System.out.printf("%-40s %12.1f %10.1f%n", name, allocated / (double) iterations, elapsed / (double) iterations);
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Map;
 
 public class MessageParser {
     private static final Gson gson = new Gson();
+    private static final Type MAP_TYPE = new TypeToken<Map<String, Object>>(){}.getType();
 
     public static Request parseRequest(String json) {
         return gson.fromJson(json, Request.class);
@@ -33,7 +34,6 @@ public class MessageParser {
     }
 
     public static Map<String, Object> parseJsonObject(String json) {
-        Type type = new TypeToken<Map<String, Object>>(){}.getType();
-        return gson.fromJson(json, type);
+        return gson.fromJson(json, MAP_TYPE);
     }
 }
@@ -5,16 +5,30 @@ public class Request {
     private String username;
     private String password;
     private int winningNumber;
+    private int count;
+    // Resolved once from action; not part of the wire format
+    private transient Action actionType;
 
     public Request(String action) {
         this.action = action;
     }
 
     public String getAction() { return action; }
+    public Action getActionType() {
+        if (actionType == null) actionType = Action.fromWire(action);
+        return actionType;
+    }
+    void setActionType(Action actionType) { setActionType(actionType, actionType.getWireName()); }
+    void setActionType(Action actionType, String action) {
+        this.actionType = actionType;
+        this.action = action;
+    }
     public String getUsername() { return username; }
     public void setUsername(String username) { this.username = username; }
     public String getPassword() { return password; }
     public void setPassword(String password) { this.password = password; }
     public int getWinningNumber() { return winningNumber; }
     public void setWinningNumber(int winningNumber) { this.winningNumber = winningNumber; }
+    public int getCount() { return count; }
+    public void setCount(int count) { this.count = count; }
 }
@@ -0,0 +1,290 @@
+package protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming decoder for the JSON request format. Reads fields straight out of
+ * the received bytes into a Request: no intermediate line String, no reflective
+ * Gson binding and no Map of boxed values. Unknown fields are skipped, so the
+ * wire format is the same one MessageParser/Gson accepts.
+ */
+public final class RequestCodec {
+    private static final int F_ACTION = 0;
+    private static final int F_USERNAME = 1;
+    private static final int F_PASSWORD = 2;
+    private static final int F_WINNING_NUMBER = 3;
+    private static final int F_COUNT = 4;
+
+    // Field names pre-encoded once; matched against the raw key bytes
+    private static final byte[][] FIELDS = {
+        ascii("action"), ascii("username"), ascii("password"), ascii("winningNumber"), ascii("count")
+    };
+
+    private final byte[] buf;
+    private int pos;
+    private final int end;
+
+    private RequestCodec(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.pos = off;
+        this.end = off + len;
+    }
+
+    public static Request decode(byte[] buf) {
+        return decode(buf, 0, buf.length);
+    }
+
+    /**
+     * Decode one JSON object from buf[off, off+len).
+     * @throws IllegalArgumentException if the bytes are not a JSON object
+     */
+    public static Request decode(byte[] buf, int off, int len) {
+        return new RequestCodec(buf, off, len).readRequest();
+    }
+
+    private Request readRequest() {
+        Request request = new Request(null);
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return request;
+        }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            int keyStart = pos;
+            int keyEnd = skipStringBody();
+            int field = matchField(keyStart, keyEnd - keyStart);
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            switch (field) {
+                case F_ACTION:
+                    readAction(request);
+                    break;
+                case F_USERNAME:
+                    request.setUsername(readString());
+                    break;
+                case F_PASSWORD:
+                    request.setPassword(readString());
+                    break;
+                case F_WINNING_NUMBER:
+                    request.setWinningNumber(readInt());
+                    break;
+                case F_COUNT:
+                    request.setCount(readInt());
+                    break;
+                default:
+                    skipValue();
+            }
+
+            skipWhitespace();
+            byte b = next();
+            if (b == '}') break;
+            if (b != ',') throw error("Expected ',' or '}'");
+        }
+        return request;
+    }
+
+    private void readAction(Request request) {
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return;
+        }
+        expect('"');
+        int start = pos;
+        int stop = skipStringBody();
+        Action action = Action.fromWire(buf, start, stop - start);
+        if (action != Action.UNKNOWN) {
+            request.setActionType(action);
+        } else {
+            // Keep the original text so callers can still report it
+            request.setActionType(Action.UNKNOWN, decodeString(start, stop));
+        }
+    }
+
+    private String readString() {
+        byte b = peek();
+        if (b == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        if (b != '"') {
+            // Gson coerces scalars into String fields; do the same
+            int start = pos;
+            skipValue();
+            return new String(buf, start, pos - start, StandardCharsets.UTF_8).trim();
+        }
+        pos++;
+        int start = pos;
+        int stop = skipStringBody();
+        return decodeString(start, stop);
+    }
+
+    private int readInt() {
+        byte b = peek();
+        if (b == 'n') {
+            expectLiteral("null");
+            return 0;
+        }
+        boolean quoted = b == '"';
+        if (quoted) pos++;
+
+        int start = pos;
+        boolean negative = false;
+        if (pos < end && buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos++] - '0');
+            if (value > Integer.MAX_VALUE + 1L) throw error("Number out of range");
+            digits++;
+        }
+        if (digits == 0) throw error("Expected number");
+        if (pos < end && (buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E')) {
+            // Rare: 5.0 or 1e3 - fall back to the full parser and truncate like Gson's Double path
+            while (pos < end && isNumberByte(buf[pos])) pos++;
+            double d = Double.parseDouble(new String(buf, start, pos - start, StandardCharsets.US_ASCII));
+            if (quoted) expect('"');
+            return (int) d;
+        }
+        if (quoted) expect('"');
+        long result = negative ? -value : value;
+        if (result > Integer.MAX_VALUE || result < Integer.MIN_VALUE) throw error("Number out of range");
+        return (int) result;
+    }
+
+    /**
+     * Advance past a string body (opening quote already consumed) and return the
+     * index of the closing quote.
+     */
+    private int skipStringBody() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b == '"') {
+                return pos++;
+            }
+            pos += b == '\\' ? 2 : 1;
+        }
+        throw error("Unterminated string");
+    }
+
+    private String decodeString(int start, int stop) {
+        int i = start;
+        while (i < stop && buf[i] != '\\') i++;
+        if (i == stop) {
+            return new String(buf, start, stop - start, StandardCharsets.UTF_8);
+        }
+
+        // Slow path for escaped strings
+        StringBuilder sb = new StringBuilder(stop - start);
+        sb.append(new String(buf, start, i - start, StandardCharsets.UTF_8));
+        int chunk = i;
+        while (i < stop) {
+            if (buf[i] != '\\') {
+                i++;
+                continue;
+            }
+            sb.append(new String(buf, chunk, i - chunk, StandardCharsets.UTF_8));
+            char esc = (char) buf[i + 1];
+            i += 2;
+            switch (esc) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 > stop) throw error("Bad unicode escape");
+                    sb.append((char) Integer.parseInt(new String(buf, i, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                    break;
+                default: sb.append(esc);
+            }
+            chunk = i;
+        }
+        sb.append(new String(buf, chunk, stop - chunk, StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+
+    private void skipValue() {
+        byte b = peek();
+        if (b == '"') {
+            pos++;
+            skipStringBody();
+            return;
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < end) {
+                byte c = buf[pos++];
+                if (c == '"') {
+                    skipStringBody();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) return;
+                }
+            }
+            throw error("Unterminated value");
+        }
+        // number, true, false, null
+        int start = pos;
+        while (pos < end && buf[pos] != ',' && buf[pos] != '}' && buf[pos] != ']' && !isWhitespace(buf[pos])) pos++;
+        if (pos == start) throw error("Expected value");
+    }
+
+    private int matchField(int off, int len) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (ByteSink.regionEquals(FIELDS[i], buf, off, len)) return i;
+        }
+        return -1;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(buf[pos])) pos++;
+    }
+
+    private byte peek() {
+        if (pos >= end) throw error("Unexpected end of input");
+        return buf[pos];
+    }
+
+    private byte next() {
+        byte b = peek();
+        pos++;
+        return b;
+    }
+
+    private void expect(char c) {
+        if (next() != c) throw error("Expected '" + c + "'");
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            expect(literal.charAt(i));
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -7,6 +7,8 @@ public class Response {
     private Integer ticketNumber;
     private Integer ticketId;
     private int[] ticketNumbers;
+    private Integer ticketCount;
+    private int[][] ticketNumberSets;
 
     public Response(String status, String message) {
         this.status = status;
@@ -22,5 +24,10 @@ public class Response {
     public Integer getTicketId() { return ticketId; }
     public void setTicketId(Integer ticketId) { this.ticketId = ticketId; }
     public int[] getTicketNumbers() { return ticketNumbers != null ? ticketNumbers.clone() : null; }
+    int[] ticketNumbersRef() { return ticketNumbers; } // codec access without the defensive copy
     public void setTicketNumbers(int[] ticketNumbers) { this.ticketNumbers = ticketNumbers != null ? ticketNumbers.clone() : null; }
+    public Integer getTicketCount() { return ticketCount; }
+    public void setTicketCount(Integer ticketCount) { this.ticketCount = ticketCount; }
+    public int[][] getTicketNumberSets() { return ticketNumberSets; }
+    public void setTicketNumberSets(int[][] ticketNumberSets) { this.ticketNumberSets = ticketNumberSets; }
 }
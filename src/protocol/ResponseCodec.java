@@ -0,0 +1,79 @@
+package protocol;
+
+/**
+ * Writes a Response as JSON straight into a ByteSink. Field order and null
+ * handling match Gson's reflective output, so clients see the same wire format.
+ */
+public final class ResponseCodec {
+    private ResponseCodec() {
+    }
+
+    public static byte[] encode(Response response) {
+        ByteSink sink = new ByteSink();
+        encode(response, sink);
+        return sink.toByteArray();
+    }
+
+    public static void encode(Response response, ByteSink out) {
+        out.writeByte('{');
+        boolean first = true;
+        if (response.getStatus() != null) {
+            first = key(out, "status", first);
+            out.writeJsonString(response.getStatus());
+        }
+        if (response.getMessage() != null) {
+            first = key(out, "message", first);
+            out.writeJsonString(response.getMessage());
+        }
+        if (response.getBalance() != null) {
+            first = key(out, "balance", first);
+            out.writeDouble(response.getBalance());
+        }
+        if (response.getTicketNumber() != null) {
+            first = key(out, "ticketNumber", first);
+            out.writeInt(response.getTicketNumber());
+        }
+        if (response.getTicketId() != null) {
+            first = key(out, "ticketId", first);
+            out.writeInt(response.getTicketId());
+        }
+        if (response.ticketNumbersRef() != null) {
+            first = key(out, "ticketNumbers", first);
+            writeIntArray(out, response.ticketNumbersRef());
+        }
+        if (response.getTicketCount() != null) {
+            first = key(out, "ticketCount", first);
+            out.writeInt(response.getTicketCount());
+        }
+        if (response.getTicketNumberSets() != null) {
+            key(out, "ticketNumberSets", first);
+            int[][] sets = response.getTicketNumberSets();
+            out.writeByte('[');
+            for (int i = 0; i < sets.length; i++) {
+                if (i > 0) out.writeByte(',');
+                writeIntArray(out, sets[i]);
+            }
+            out.writeByte(']');
+        }
+        out.writeByte('}');
+    }
+
+    private static boolean key(ByteSink out, String name, boolean first) {
+        if (!first) out.writeByte(',');
+        out.writeByte('"').writeAscii(name).writeByte('"').writeByte(':');
+        return false;
+    }
+
+    private static void writeIntArray(ByteSink out, int[] values) {
+        if (values == null) {
+            out.writeAscii("null");
+            return;
+        }
+        out.writeByte('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.writeByte(',');
+            out.writeInt(values[i]);
+        }
+        out.writeByte(']');
+    }
+}
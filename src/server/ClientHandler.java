@@ -1,86 +1,176 @@
 package server;
 
-import protocol.MessageParser;
+import protocol.BinaryCodec;
+import protocol.ByteSink;
 import protocol.Request;
+import protocol.RequestCodec;
 import protocol.Response;
+import protocol.ResponseCodec;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClientHandler implements Runnable {
+    // Pipelined mode is on unless -Dlottery.tcp.pipelined=false
+    private static final boolean PIPELINED_DEFAULT =
+            Boolean.parseBoolean(System.getProperty("lottery.tcp.pipelined", "true"));
+    private static final int INITIAL_READ_BUFFER = 8192;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final AtomicInteger openConnections = new AtomicInteger();
+
     private Socket socket;
     private DataManager dataManager;
-    private BufferedReader in;
-    private PrintWriter out;
+    private RequestProcessor requestProcessor;
+    private InputStream in;
+    private OutputStream out;
+    private boolean pipelined;
+    // Chosen by the first byte the client sends (BinaryCodec.HANDSHAKE selects binary)
+    private boolean binary;
+    private boolean negotiated;
 
     public ClientHandler(Socket socket, DataManager dataManager) {
+        this(socket, dataManager, PIPELINED_DEFAULT);
+    }
+
+    public ClientHandler(Socket socket, DataManager dataManager, boolean pipelined) {
         this.socket = socket;
         this.dataManager = dataManager;
+        this.requestProcessor = new RequestProcessor(dataManager);
+        this.pipelined = pipelined;
     }
 
     @Override
     public void run() {
+        openConnections.incrementAndGet();
         try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                Request request = MessageParser.parseRequest(inputLine);
-                Response response = processRequest(request);
-                String jsonResponse = MessageParser.toJson(response);
-                out.println(jsonResponse);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+
+            // Lines are framed and decoded straight from this buffer; responses are
+            // encoded into a reusable sink, so no per-request Strings are built
+            byte[] buffer = new byte[INITIAL_READ_BUFFER];
+            int lineStart = 0;
+            int filled = 0;
+            ByteSink responses = new ByteSink(1024);
+
+            while (true) {
+                if (filled == buffer.length) {
+                    if (lineStart > 0) {
+                        System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+                        filled -= lineStart;
+                        lineStart = 0;
+                    } else if (buffer.length < MAX_LINE_LENGTH) {
+                        buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_LINE_LENGTH));
+                    } else {
+                        System.err.println("Request line too long from " + socket.getInetAddress());
+                        break;
+                    }
+                }
+
+                int read = in.read(buffer, filled, buffer.length - filled);
+                if (read == -1) break;
+                int scanFrom = filled;
+                filled += read;
+
+                if (!negotiated) {
+                    negotiated = true;
+                    if ((buffer[0] & 0xFF) == BinaryCodec.HANDSHAKE) {
+                        binary = true;
+                        lineStart = scanFrom = 1;
+                        responses.writeByte(BinaryCodec.HANDSHAKE);
+                    }
+                }
+
+                if (binary) {
+                    lineStart = handleFrames(buffer, lineStart, filled, responses);
+                } else {
+                    for (int i = scanFrom; i < filled; i++) {
+                        if (buffer[i] == '\n') {
+                            handleLine(buffer, lineStart, i, responses);
+                            lineStart = i + 1;
+                            if (!pipelined) flush(responses);
+                        }
+                    }
+                }
+
+                // Pipelined: every complete request already received has been answered
+                // in order; send the whole burst with one write and one flush
+                flush(responses);
+
+                if (lineStart == filled) {
+                    lineStart = 0;
+                    filled = 0;
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
             closeConnection();
+            openConnections.decrementAndGet();
         }
     }
 
-    private Response processRequest(Request request) {
-        String action = request.getAction();
-        switch (action) {
-            case "login":
-                dataManager.loginUser(request.getUsername(), 100.0);
-                Response loginResp = new Response("success", "Login successful");
-                loginResp.setBalance(100.0);
-                return loginResp;
-            case "buyTicket":
-                int[] ticketNumbers = dataManager.buyTicket(request.getUsername());
-                if (ticketNumbers != null) {
-                    Response buyResp = new Response("success", "Ticket purchased successfully");
-                    buyResp.setTicketNumbers(ticketNumbers);
-                    buyResp.setTicketId(dataManager.getLastTicketId());
-                    buyResp.setBalance(dataManager.getUserBalance(request.getUsername()));
-                    return buyResp;
-                } else {
-                    return new Response("error", "Insufficient balance");
-                }
-            case "checkResult":
-                boolean won = dataManager.checkResult(request.getUsername());
-                if (won) {
-                    return new Response("success", "Congratulations! You won!");
-                } else {
-                    return new Response("success", "Better luck next time");
-                }
-            case "adminLogin":
-                return new Response("success", "Admin authenticated");
-            case "setWinningNumber":
-                dataManager.setWinningNumber(request.getWinningNumber());
-                return new Response("success", "Winning number set");
-            case "viewTickets":
-                // For simplicity, return a basic response; full list via JSON
-                return new Response("success", "Tickets retrieved");
-            case "announceResults":
-                dataManager.announceResults();
-                return new Response("success", "Results announced");
-            default:
-                return new Response("error", "Unknown action");
+    private void handleLine(byte[] buffer, int start, int end, ByteSink responses) {
+        if (end > start && buffer[end - 1] == '\r') end--;
+        if (end == start) return;
+
+        Response response;
+        try {
+            Request request = RequestCodec.decode(buffer, start, end - start);
+            response = processRequest(request);
+        } catch (IllegalArgumentException e) {
+            response = new Response("error", "Malformed request");
         }
+        ResponseCodec.encode(response, responses);
+        responses.writeByte('\n');
+    }
+
+    /**
+     * Handle every complete binary frame in buffer[start, filled); returns the
+     * start of the first incomplete frame.
+     */
+    private int handleFrames(byte[] buffer, int start, int filled, ByteSink responses) throws IOException {
+        while (start < filled) {
+            int frameLength;
+            try {
+                frameLength = BinaryCodec.frameLength(buffer, start, filled - start);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad binary frame from " + socket.getInetAddress(), e);
+            }
+            if (frameLength < 0) break;
+
+            int prefix = BinaryCodec.headerLength(buffer, start);
+            Response response;
+            try {
+                Request request = BinaryCodec.decodeRequest(buffer, start + prefix, frameLength - prefix);
+                response = processRequest(request);
+            } catch (IllegalArgumentException e) {
+                response = new Response("error", "Malformed request");
+            }
+            BinaryCodec.encodeResponse(response, responses);
+            start += frameLength;
+            if (!pipelined) flush(responses);
+        }
+        return start;
+    }
+
+    private void flush(ByteSink responses) throws IOException {
+        if (responses.size() == 0) return;
+        responses.writeTo(out);
+        out.flush();
+        responses.reset();
+    }
+
+    public static int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    private Response processRequest(Request request) {
+        return requestProcessor.process(request);
     }
 
     private void closeConnection() {
@@ -2,104 +2,559 @@ package server;
 
 import model.User;
 import model.Ticket;
-import optional.WebSocketServer;
+import model.TicketBatch;
+import event.EventBus;
+import event.PrizeCredited;
+import event.TicketPurchased;
+import event.WinningNumberSet;
+import persistence.GroupCommitter;
+import persistence.Ledger;
+import persistence.LedgerRecord;
+import persistence.SnapshotStore;
+import protocol.ByteSink;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 // Note: This DataManager now serves as a coordination layer.
 // Most data operations are handled client-side with Firebase/Firestore.
 // This class maintains minimal state for server-side coordination.
 public class DataManager {
+    // Money is handled in cents so balance updates can be lock-free CAS operations
+    public static final long TICKET_PRICE_CENTS = 1000;
+    public static final long PRIZE_CENTS = 10000;
+    public static final double TICKET_PRICE = TICKET_PRICE_CENTS / 100.0;
+    public static final int MAX_BULK_TICKETS = 1000;
+    public static final int FIRST_TICKET_ID = 1000;
+    public static final int MAX_NUMBER = 10;
+    // Initial buffer cap for getAllTicketsJson
+    private static final int MAX_PRESIZED_JSON_BYTES = 64 * 1024 * 1024;
+
     private ConcurrentHashMap<String, User> users;
-    private ConcurrentHashMap<Integer, Ticket> tickets;
+    // Users by their int id, so the ticket store can reference owners without Strings
+    private volatile User[] usersById;
+    private int userCount;
+    // Users whose USER_CREATED record is not durable yet, with its sequence
+    private final ConcurrentHashMap<String, Long> uncommittedUsers = new ConcurrentHashMap<>();
+    private final TicketStore tickets;
     private AtomicInteger ticketCounter;
-    private volatile Integer winningNumber;
+    private final TicketIndex ticketIndex;
+    // The latest draw, replaced as a whole so its number and winners are always read together
+    private volatile Draw draw = new Draw(null, new BitSet());
+    // Serializes draws; purchases never take it
+    private final Object drawLock = new Object();
+    // Durable record of every state change; null keeps the server memory-only
+    private final Ledger ledger;
+    // Makes callers wait until their records are forced to disk; null trusts the page cache
+    private final GroupCommitter groupCommitter;
+    // Committed changes are announced here (WebSocket, logs, metrics); null publishes nothing
+    private volatile EventBus eventBus;
+    // Bumped after every applied change, so readers can cache what they render per version
+    private final AtomicLong stateVersion = new AtomicLong();
+    // Bumped after every settled draw; with a user's ticket count it pins their results
+    private final AtomicLong drawVersion = new AtomicLong();
+
+    /**
+     * A settled draw: its number (null before the first draw) and the tickets it
+     * paid out, indexed by ticketId - FIRST_TICKET_ID. Never changed once
+     * published, except while replaying.
+     */
+    private static final class Draw {
+        final Integer number;
+        final BitSet winners;
+
+        Draw(Integer number, BitSet winners) {
+            this.number = number;
+            this.winners = winners;
+        }
+    }
 
     public DataManager() {
+        this(null, null);
+    }
+
+    private DataManager(Ledger ledger, GroupCommitter groupCommitter) {
         users = new ConcurrentHashMap<>();
-        tickets = new ConcurrentHashMap<>();
-        ticketCounter = new AtomicInteger(1000);
-        winningNumber = null;
+        usersById = new User[64];
+        tickets = new TicketStore(FIRST_TICKET_ID);
+        ticketCounter = new AtomicInteger(FIRST_TICKET_ID);
+        ticketIndex = new TicketIndex(MAX_NUMBER);
+        this.ledger = ledger;
+        this.groupCommitter = groupCommitter;
+    }
+
+    /**
+     * Rebuild state from the newest readable snapshot plus the ledger tail after
+     * it, then record every further change in the ledger. With a group committer,
+     * every mutation returns only once its records are durable.
+     */
+    public static DataManager recover(Ledger ledger, GroupCommitter groupCommitter, SnapshotStore snapshots)
+            throws IOException {
+        long start = System.nanoTime();
+        DataManager dataManager = new DataManager(ledger, groupCommitter);
+        long afterSegment = -1;
+        long afterSequence = 0;
+        // Segments the oldest snapshot covers; the newer ones back its fallback
+        long deleteThroughSegment = -1;
+        String source = "no snapshot";
+        if (snapshots != null) {
+            List<SnapshotStore.Snapshot> available = snapshots.list();
+            if (!available.isEmpty()) {
+                deleteThroughSegment = available.get(available.size() - 1).getLastSegment();
+            }
+            for (SnapshotStore.Snapshot snapshot : available) {
+                DataManager candidate = new DataManager(ledger, groupCommitter);
+                try {
+                    afterSequence = candidate.loadSnapshot(snapshots, snapshot);
+                } catch (IOException | RuntimeException e) {
+                    quarantine(snapshots, snapshot, e);
+                    continue;
+                }
+                dataManager = candidate;
+                afterSegment = snapshot.getLastSegment();
+                source = "snapshot " + snapshot.getPath().getFileName();
+                break;
+            }
+        }
+
+        long records = ledger.recover(dataManager::replay, afterSegment, afterSequence, deleteThroughSegment);
+        if (groupCommitter != null) groupCommitter.start();
+        System.out.printf("Startup: loaded %s and replayed %d ledger records in %.1f ms (%d users, %d tickets)%n",
+                source, records, (System.nanoTime() - start) / 1e6, dataManager.userCount, dataManager.getTicketCount());
+        return dataManager;
+    }
+
+    /**
+     * Set an unreadable snapshot aside so later recoveries and compactions
+     * stop tripping over it and fall back to the next older one.
+     */
+    static void quarantine(SnapshotStore snapshots, SnapshotStore.Snapshot snapshot, Exception cause) {
+        System.err.println("Skipping unreadable snapshot " + snapshot.getPath() + ": " + cause.getMessage());
+        try {
+            System.err.println("Moved it to " + snapshots.quarantine(snapshot));
+        } catch (IOException e) {
+            System.err.println("Could not move it aside: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Empty, ledger-less instance that only has records applied to it; used to
+     * build snapshots off to the side without touching the live state.
+     */
+    static DataManager replica() {
+        return new DataManager(null, null);
+    }
+
+    /**
+     * Load a replica from a snapshot (see writeSnapshot); returns the last ledger sequence it covers.
+     */
+    long loadSnapshot(SnapshotStore snapshots, SnapshotStore.Snapshot snapshot) throws IOException {
+        return snapshots.read(snapshot, this::readSnapshot);
+    }
+
+    /**
+     * Snapshot body: users, tickets, ticket counter and the latest draw. Only
+     * called on a replica, which nothing else mutates.
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(userCount);
+        for (int id = 0; id < userCount; id++) {
+            User user = usersById[id];
+            out.writeBoolean(user != null);
+            if (user == null) continue;
+            out.writeUTF(user.getUsername());
+            out.writeLong(user.getBalanceCents());
+        }
+
+        int lastTicketId = getLastTicketId();
+        out.writeInt(ticketCounter.get());
+        out.writeInt(tickets.size());
+        int[] numbers = new int[TicketStore.NUMBERS_PER_TICKET];
+        for (int ticketId = FIRST_TICKET_ID; ticketId <= lastTicketId; ticketId++) {
+            int ownerId = tickets.ownerOf(ticketId);
+            if (ownerId < 0 || !tickets.readNumbers(ticketId, numbers)) continue;
+            out.writeInt(ticketId);
+            out.writeInt(ownerId);
+            for (int number : numbers) {
+                out.writeByte(number);
+            }
+            out.writeLong(tickets.purchaseTime(ticketId));
+        }
+
+        Draw latest = draw;
+        out.writeInt(latest.number != null ? latest.number : 0);
+        long[] winners = latest.winners.toLongArray();
+        out.writeInt(winners.length);
+        for (long word : winners) {
+            out.writeLong(word);
+        }
+    }
+
+    private void readSnapshot(DataInputStream in) throws IOException {
+        int userTotal = in.readInt();
+        for (int id = 0; id < userTotal; id++) {
+            if (!in.readBoolean()) continue;
+            String username = in.readUTF();
+            restoreUser(id, username, in.readLong());
+        }
+
+        int counter = in.readInt();
+        int ticketTotal = in.readInt();
+        int[] numbers = new int[TicketStore.NUMBERS_PER_TICKET];
+        for (int t = 0; t < ticketTotal; t++) {
+            int ticketId = in.readInt();
+            int ownerId = in.readInt();
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = in.readByte();
+            }
+            restoreTicket(ticketId, ownerId, numbers, in.readLong());
+        }
+        ticketCounter.set(Math.max(ticketCounter.get(), counter));
+
+        int number = in.readInt();
+        long[] winners = new long[in.readInt()];
+        for (int i = 0; i < winners.length; i++) {
+            winners[i] = in.readLong();
+        }
+        draw = new Draw(number != 0 ? number : null, BitSet.valueOf(winners));
+    }
+
+    private User findUser(String username) {
+        return username != null ? users.get(username) : null;
+    }
+
+    private User userById(int id) {
+        User[] byId = usersById;
+        return id >= 0 && id < byId.length ? byId[id] : null;
+    }
+
+    /**
+     * Find or create the user, returning only once its creation is durable.
+     * Null means the account could not be created (or its commit failed, in
+     * which case it is rolled back and voided).
+     */
+    private User registerUser(String username, double initialBalance) {
+        if (username == null) return null;
+        long[] sequence = new long[1];
+        User registered = users.computeIfAbsent(username, name -> {
+            synchronized (this) {
+                User user = new User(userCount, name, initialBalance);
+                sequence[0] = journal(LedgerRecord.userCreated(user.getId(), name, user.getBalanceCents()));
+                if (sequence[0] < 0) return null;
+                if (sequence[0] > 0) uncommittedUsers.put(name, sequence[0]);
+                addUser(user);
+                return user;
+            }
+        });
+        if (registered == null) return null;
+        // Wait outside the map and registry locks so other logins share the commit
+        if (sequence[0] > 0) {
+            if (awaitDurable(sequence[0])) {
+                uncommittedUsers.remove(username);
+                return registered;
+            }
+            removeUser(registered);
+            uncommittedUsers.remove(username);
+            voidRecords(sequence[0], sequence[0]);
+            return null;
+        }
+        // Someone else created it; wait for their record too. A failed creation
+        // is removed from the map before its entry here, so the check below sees it.
+        Long pending = uncommittedUsers.get(username);
+        if (pending != null && !awaitDurable(pending)) return null;
+        return users.get(username) == registered ? registered : null;
+    }
+
+    private void removeUser(User user) {
+        users.remove(user.getUsername(), user);
+        synchronized (this) {
+            usersById[user.getId()] = null;
+            stateVersion.incrementAndGet();
+        }
+    }
+
+    private void addUser(User user) {
+        if (user.getId() >= usersById.length) {
+            usersById = java.util.Arrays.copyOf(usersById, Math.max(usersById.length * 2, user.getId() + 1));
+        }
+        usersById[user.getId()] = user;
+        userCount = Math.max(userCount, user.getId() + 1);
+        stateVersion.incrementAndGet();
+    }
+
+    /**
+     * Append a record to the ledger without waiting for it to be durable.
+     * Returns its sequence number, 0 without a ledger, or -1 if it failed.
+     */
+    private long journal(LedgerRecord record) {
+        if (ledger == null) return 0;
+        try {
+            return ledger.append(record);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ledger write failed: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private boolean awaitDurable(long sequence) {
+        if (groupCommitter == null || sequence <= 0) return sequence >= 0;
+        try {
+            groupCommitter.awaitDurable(sequence);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Ledger commit failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Write-ahead: journal the record and wait for its group commit. False means
+     * the change is not durable and the caller must not apply it.
+     */
+    private boolean commit(LedgerRecord record) {
+        long sequence = journal(record);
+        if (awaitDurable(sequence)) return true;
+        voidRecords(sequence, sequence);
+        return false;
+    }
+
+    private boolean commitAll(List<LedgerRecord> records) {
+        if (ledger == null) return true;
+        long last;
+        try {
+            last = ledger.appendAll(records);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ledger write failed: " + e.getMessage());
+            return false;
+        }
+        if (awaitDurable(last)) return true;
+        voidRecords(last - records.size() + 1, last);
+        return false;
+    }
+
+    /**
+     * The records in [first, last] are in the mapped segment but their commit
+     * failed, and the caller is rolling them back. Append a VOID for them so
+     * recovery skips them too. It lands right behind them, normally in the
+     * same page, so whatever write-back persists them persists the void as
+     * well. Best effort: there is no point waiting on a failed committer.
+     */
+    private void voidRecords(long first, long last) {
+        if (ledger == null || first <= 0) return;
+        if (journal(LedgerRecord.voided(first, last)) < 0) {
+            System.err.println("Ledger records " + first + ".." + last + " could not be voided");
+        }
+    }
+
+    /**
+     * Apply one recovered ledger record. No broadcasts and no re-journaling.
+     */
+    void replay(LedgerRecord record) {
+        switch (record.getType()) {
+            case USER_CREATED:
+                restoreUser(record.getUserId(), record.getUsername(), record.getAmountCents());
+                break;
+            case PURCHASE: {
+                User user = userById(record.getUserId());
+                if (user == null) break;
+                user.credit(-record.getAmountCents());
+                restoreTicket(record.getTicketId(), user.getId(), record.getNumbers(), record.getTime());
+                break;
+            }
+            case WINNING_NUMBER:
+                draw = new Draw(record.getWinningNumber(), new BitSet());
+                drawVersion.incrementAndGet();
+                break;
+            case CREDIT: {
+                User user = userById(record.getUserId());
+                if (user == null) break;
+                user.credit(record.getAmountCents());
+                draw.winners.set(record.getTicketId() - FIRST_TICKET_ID);
+                break;
+            }
+        }
+    }
+
+    private void restoreUser(int id, String username, long balanceCents) {
+        User user = new User(id, username, balanceCents / 100.0);
+        users.put(username, user);
+        addUser(user);
+    }
+
+    private void restoreTicket(int ticketId, int ownerId, int[] numbers, long purchaseTime) {
+        User owner = userById(ownerId);
+        if (owner == null) return;
+        tickets.put(ticketId, ownerId, numbers, purchaseTime);
+        ticketIndex.add(ticketId, numbers);
+        owner.addTicketId(ticketId);
+        if (ticketId >= ticketCounter.get()) ticketCounter.set(ticketId + 1);
+        stateVersion.incrementAndGet();
     }
 
     // Legacy methods for backward compatibility with existing TCP clients
-    public void loginUser(String username, double initialBalance) {
-        users.putIfAbsent(username, new User(username, initialBalance));
+    /** False if the account does not exist and could not be durably created. */
+    public boolean loginUser(String username, double initialBalance) {
+        return registerUser(username, initialBalance) != null;
     }
 
-    public void createUserIfNotExists(String username) {
-        users.putIfAbsent(username, new User(username, 100.0)); // Start with 100 balance
+    public boolean createUserIfNotExists(String username) {
+        return registerUser(username, 100.0) != null; // Start with 100 balance
     }
 
     // Note: buyTicket and other data operations are now handled client-side with Firebase
     // These methods remain for legacy TCP client support
     public int[] buyTicket(String username) {
-        User user = users.get(username);
-        if (user == null || user.getBalance() < 10.0) return null;
+        Ticket ticket = purchaseTicket(username);
+        return ticket != null ? ticket.getNumbers() : null;
+    }
+
+    /**
+     * Sell one ticket. The debit happens first and atomically, so concurrent buys
+     * on the same account can never take the balance below zero.
+     * Returns null if the user is unknown or cannot afford it.
+     */
+    public Ticket purchaseTicket(String username) {
+        User user = findUser(username);
+        if (user == null || !user.tryDebit(TICKET_PRICE_CENTS)) return null;
 
         // Generate 5 random numbers between 1-10
-        int[] numbers = new int[5];
-        for (int i = 0; i < 5; i++) {
-            numbers[i] = 1 + (int)(Math.random() * 10);
-        }
+        int[] numbers = randomNumbers();
 
         int ticketId = ticketCounter.getAndIncrement();
-        Ticket ticket = new Ticket(ticketId, username, numbers);
-        tickets.put(ticketId, ticket);
-        user.setBalance(user.getBalance() - 10.0);
+        long purchaseTime = System.currentTimeMillis();
+        if (!commit(LedgerRecord.purchase(ticketId, user.getId(), TICKET_PRICE_CENTS, purchaseTime, numbers))) {
+            user.credit(TICKET_PRICE_CENTS);
+            return null;
+        }
+        tickets.put(ticketId, user.getId(), numbers, purchaseTime);
+        ticketIndex.add(ticketId, numbers);
+        Ticket ticket = new Ticket(ticketId, username, numbers, purchaseTime);
         user.addTicketId(ticketId);
+        stateVersion.incrementAndGet();
 
-        // 🔴 WebSocket: Broadcast ticket purchase to all clients
-        try {
-            WebSocketServer.broadcastTicketPurchase(username, numbers);
-            WebSocketServer.broadcastTicketCount(tickets.size());
-            
-            // Calculate and broadcast live stats
-            double jackpot = tickets.size() * 10.0 * 0.5; // 50% to jackpot
-            WebSocketServer.broadcastLiveStats(tickets.size(), jackpot);
-            
-            // Notify admins of purchase
-            WebSocketServer.broadcastToAdmins("TICKET_PURCHASE", 
-                String.format("User %s purchased ticket #%d", username, ticketId));
-        } catch (Exception e) {
-            System.err.println("WebSocket broadcast error: " + e.getMessage());
-        }
+        // 🔴 Announced asynchronously; the WebSocket ticker conflates purchases
+        publishPurchase(username, 1, ticketId, ticketId, purchaseTime);
+
+        return ticket;
+    }
+
+    private void publishPurchase(String username, int count, int firstTicketId, int lastTicketId, long purchaseTime) {
+        EventBus bus = eventBus;
+        if (bus == null) return;
+        int total = tickets.size();
+        double jackpot = total * TICKET_PRICE * 0.5; // 50% to jackpot
+        bus.publish(new TicketPurchased(username, count, firstTicketId, lastTicketId, total, jackpot, purchaseTime));
+    }
+
+    public void setEventBus(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
 
+    private static int[] randomNumbers() {
+        int[] numbers = new int[TicketStore.NUMBERS_PER_TICKET];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = 1 + random.nextInt(MAX_NUMBER);
+        }
         return numbers;
     }
 
-    public void setWinningNumber(int number) {
-        this.winningNumber = number;
-        
-        // 🔴 WebSocket: Broadcast winning number to all clients
-        try {
-            WebSocketServer.broadcastWinningNumber(number);
-            WebSocketServer.broadcastAnnouncement(
-                "Winning Number Announced!", 
-                "The winning number is " + number, 
-                "success"
-            );
-            
-            // Check for winners and notify them
-            notifyWinners(number);
-            
-            // Notify admins
-            WebSocketServer.broadcastToAdmins("WINNING_NUMBER_SET", 
-                "Winning number set to: " + number);
-        } catch (Exception e) {
-            System.err.println("WebSocket broadcast error: " + e.getMessage());
+    /**
+     * Bulk purchase: one balance debit, a contiguous ticket-id range and a single
+     * set of broadcasts for the whole batch. Returns null if count is out of range
+     * or the balance does not cover it.
+     */
+    public TicketBatch buyTickets(String username, int count) {
+        if (count < 1 || count > MAX_BULK_TICKETS) return null;
+        User user = findUser(username);
+        if (user == null || !user.tryDebit(count * TICKET_PRICE_CENTS)) return null;
+
+        int[][] numberSets = new int[count][];
+        for (int t = 0; t < count; t++) {
+            numberSets[t] = randomNumbers();
+        }
+
+        int firstTicketId = ticketCounter.getAndAdd(count);
+        long purchaseTime = System.currentTimeMillis();
+        List<LedgerRecord> records = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            records.add(LedgerRecord.purchase(firstTicketId + t, user.getId(), TICKET_PRICE_CENTS,
+                    purchaseTime, numberSets[t]));
+        }
+        if (!commitAll(records)) {
+            user.credit(count * TICKET_PRICE_CENTS);
+            return null;
+        }
+        for (int t = 0; t < count; t++) {
+            int ticketId = firstTicketId + t;
+            tickets.put(ticketId, user.getId(), numberSets[t], purchaseTime);
+            ticketIndex.add(ticketId, numberSets[t]);
         }
+        user.addTicketIds(firstTicketId, count);
+        stateVersion.incrementAndGet();
+        TicketBatch batch = new TicketBatch(firstTicketId, numberSets);
+
+        // 🔴 Announced asynchronously; the WebSocket ticker conflates purchases
+        publishPurchase(username, batch.getCount(), batch.getFirstTicketId(), batch.getLastTicketId(), purchaseTime);
+
+        return batch;
     }
 
+    /**
+     * Draw number and pay out its winners. Returns false, with nothing
+     * changed, if the draw could not be committed to the ledger.
+     *
+     * Draws run one at a time. The draw is settled first and only then
+     * published, number and winners in one write, so readers see either the
+     * previous draw or this one complete.
+     */
+    public boolean setWinningNumber(int number) {
+        synchronized (drawLock) {
+            int[] winners = settleDraw(number);
+            if (winners == null) return false;
+            BitSet settled = new BitSet();
+            for (int ticketId : winners) {
+                settled.set(ticketId - FIRST_TICKET_ID);
+            }
+            draw = new Draw(number, settled);
+            drawVersion.incrementAndGet();
+            stateVersion.incrementAndGet();
+
+            // 🔴 Announced asynchronously: draw result, then one event per winning ticket
+            EventBus bus = eventBus;
+            if (bus != null) {
+                long now = System.currentTimeMillis();
+                bus.publish(new WinningNumberSet(number, winners.length, now));
+                publishPrizes(bus, winners, number, now);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * True if any of the user's tickets was paid out by the latest draw.
+     */
     public boolean checkResult(String username) {
-        if (winningNumber == null) return false;
-        User user = users.get(username);
+        Draw latest = draw;
+        if (latest.number == null) return false;
+        User user = findUser(username);
         if (user == null) return false;
-        for (int ticketId : user.getTicketIds()) {
-            Ticket ticket = tickets.get(ticketId);
-            if (ticket != null && ticket.getTicketNumber() == winningNumber) {
+        BitSet winners = latest.winners;
+        for (int ticketId : user.getTicketIdArray()) {
+            if (winners.get(ticketId - FIRST_TICKET_ID)) {
                 return true;
             }
         }
@@ -107,17 +562,15 @@ public class DataManager {
     }
 
     public int getUserTicket(String username) {
-        User user = users.get(username);
-        if (user != null && !user.getTicketIds().isEmpty()) {
-            int lastTicketId = user.getTicketIds().get(user.getTicketIds().size() - 1);
-            Ticket ticket = tickets.get(lastTicketId);
-            return ticket != null ? ticket.getTicketNumber() : 0;
+        User user = findUser(username);
+        if (user != null && user.getTicketCount() > 0) {
+            return tickets.firstNumber(user.getLastTicketId());
         }
         return 0;
     }
 
     public double getUserBalance(String username) {
-        User user = users.get(username);
+        User user = findUser(username);
         return user != null ? user.getBalance() : 0.0;
     }
 
@@ -126,24 +579,76 @@ public class DataManager {
     }
 
     public int getWinningNumber() {
-        return winningNumber != null ? winningNumber : 0;
+        Integer number = draw.number;
+        return number != null ? number : 0;
     }
 
     // Legacy JSON methods for backward compatibility
     public String getAllTicketsJson() {
-        StringBuilder sb = new StringBuilder("[");
-        boolean first = true;
-        for (Ticket ticket : tickets.values()) {
-            if (!first) sb.append(",");
-            sb.append(String.format("{\"id\":%d,\"username\":\"%s\",\"numbers\":%s,\"purchaseTime\":\"%s\"}",
-                    ticket.getTicketId(),
-                    ticket.getUsername(),
-                    java.util.Arrays.toString(ticket.getNumbers()),
-                    java.time.Instant.now().toString())); // Simple timestamp
-            first = false;
+        // Presize for typical rows, in long arithmetic and capped; past the cap it grows as it goes
+        ByteSink out = new ByteSink((int) Math.min(64L * tickets.size() + 2, MAX_PRESIZED_JSON_BYTES));
+        out.writeByte('[');
+        writeTicketRows(out, FIRST_TICKET_ID - 1, getLastTicketId(), Integer.MAX_VALUE, false);
+        out.writeByte(']');
+        return new String(out.array(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the JSON objects of up to limit tickets with afterId < id <= throughId,
+     * in id order, comma separated (with a leading comma if continuing).
+     * Returns the cursor for the next page: the last id written if the limit
+     * was reached, otherwise throughId. Ids only ever grow, so the cursor is
+     * stable however many tickets are sold in between.
+     */
+    public int writeTicketRows(ByteSink out, int afterId, int throughId, int limit, boolean continuing) {
+        int[] numbers = new int[TicketStore.NUMBERS_PER_TICKET];
+        IsoInstantWriter timestamps = new IsoInstantWriter();
+        int written = 0;
+        int lastWritten = afterId;
+        for (int ticketId = Math.max(afterId + 1, FIRST_TICKET_ID); ticketId <= throughId && written < limit; ticketId++) {
+            User owner = userById(tickets.ownerOf(ticketId));
+            if (owner == null || !tickets.readNumbers(ticketId, numbers)) continue;
+            if (continuing || written > 0) out.writeByte(',');
+            out.writeAscii("{\"id\":").writeInt(ticketId)
+               .writeAscii(",\"username\":").writeJsonString(owner.getUsername())
+               .writeAscii(",\"numbers\":[");
+            for (int i = 0; i < numbers.length; i++) {
+                if (i > 0) out.writeByte(',');
+                out.writeInt(numbers[i]);
+            }
+            out.writeAscii("],\"purchaseTime\":\"");
+            timestamps.write(out, tickets.purchaseTime(ticketId));
+            out.writeAscii("\"}");
+            written++;
+            lastWritten = ticketId;
+        }
+        return written < limit ? Math.max(afterId, throughId) : lastWritten;
+    }
+
+    /**
+     * Writes epoch millis exactly as Instant.toString() would, rendering the
+     * date/time part only when the second changes (tickets mostly arrive in
+     * id order, so consecutive rows share it).
+     */
+    private static final class IsoInstantWriter {
+        private long second = Long.MIN_VALUE;
+        private String secondText;
+
+        void write(ByteSink out, long millis) {
+            long s = Math.floorDiv(millis, 1000);
+            if (s != second) {
+                second = s;
+                secondText = LocalDateTime.ofEpochSecond(s, 0, ZoneOffset.UTC).toString();
+                // LocalDateTime drops ":00" seconds; Instant does not
+                if (secondText.length() == 16) secondText += ":00";
+            }
+            out.writeAscii(secondText);
+            int ms = (int) Math.floorMod(millis, 1000L);
+            if (ms != 0) {
+                out.writeByte('.').writeByte('0' + ms / 100).writeByte('0' + ms / 10 % 10).writeByte('0' + ms % 10);
+            }
+            out.writeByte('Z');
         }
-        sb.append("]");
-        return sb.toString();
     }
 
     public void announceResults() {
@@ -153,20 +658,21 @@ public class DataManager {
     }
 
     public String getUserTicketsJson(String username) {
-        User user = users.get(username);
+        User user = findUser(username);
         if (user == null) return "[]";
 
         StringBuilder sb = new StringBuilder("[");
         boolean first = true;
-        for (int ticketId : user.getTicketIds()) {
-            Ticket ticket = tickets.get(ticketId);
-            if (ticket != null) {
+        Draw latest = draw;
+        int[] numbers = new int[TicketStore.NUMBERS_PER_TICKET];
+        for (int ticketId : user.getTicketIdArray()) {
+            if (tickets.readNumbers(ticketId, numbers)) {
                 if (!first) sb.append(",");
-                boolean won = winningNumber != null && ticket.getTicketNumber() == winningNumber;
-                int prize = won ? 100 : 0; // Simple prize logic
+                boolean won = latest.number != null && latest.winners.get(ticketId - FIRST_TICKET_ID);
+                int prize = won ? (int) (PRIZE_CENTS / 100) : 0;
                 sb.append(String.format("{\"id\":%d,\"numbers\":%s,\"won\":%b,\"prize\":%d}",
-                        ticket.getTicketId(),
-                        java.util.Arrays.toString(ticket.getNumbers()),
+                        ticketId,
+                        java.util.Arrays.toString(numbers),
                         won,
                         prize));
                 first = false;
@@ -176,27 +682,83 @@ public class DataManager {
         return sb.toString();
     }
 
+    /**
+     * Materialize one ticket from the columnar store; null if it does not exist.
+     */
+    public Ticket getTicket(int ticketId) {
+        User owner = userById(tickets.ownerOf(ticketId));
+        int[] numbers = new int[TicketStore.NUMBERS_PER_TICKET];
+        if (owner == null || !tickets.readNumbers(ticketId, numbers)) return null;
+        return new Ticket(ticketId, owner.getUsername(), numbers, tickets.purchaseTime(ticketId));
+    }
+
     public int getTicketCount() {
         return tickets.size();
     }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public int getUserTicketCount(String username) {
+        User user = findUser(username);
+        return user != null ? user.getTicketCount() : 0;
+    }
+
+    /**
+     * Increases after every applied change (users, purchases, draws).
+     */
+    public long getStateVersion() {
+        return stateVersion.get();
+    }
+
+    /**
+     * Increases after every settled draw. A user's results only change with
+     * this or their own ticket count.
+     */
+    public long getDrawVersion() {
+        return drawVersion.get();
+    }
     
     /**
-     * Check all tickets for winners and notify them via WebSocket
-     */
-    private void notifyWinners(int winningNumber) {
-        for (Ticket ticket : tickets.values()) {
-            for (int number : ticket.getNumbers()) {
-                if (number == winningNumber) {
-                    double prize = 100.0; // Prize for winning ticket
-                    WebSocketServer.notifyWinner(ticket.getUsername(), winningNumber, prize);
-                    
-                    // Update user balance
-                    User user = users.get(ticket.getUsername());
-                    if (user != null) {
-                        user.setBalance(user.getBalance() + prize);
-                    }
-                    break; // Only one win per ticket
-                }
+     * Pay out every ticket containing the drawn number. Only the matching tickets
+     * are visited, via the number -> tickets index. Returns the winning ticket ids,
+     * or null if the draw could not be committed; nobody is credited then.
+     * Called under drawLock.
+     */
+    private int[] settleDraw(int number) {
+        IntStream.Builder found = IntStream.builder();
+        ticketIndex.forEachTicket(number, ticketId -> {
+            if (tickets.ownerOf(ticketId) >= 0) found.add(ticketId);
+        });
+        int[] winners = found.build().toArray();
+
+        // Journal the draw and its payouts as one batch, then apply them
+        List<LedgerRecord> records = new ArrayList<>(winners.length + 1);
+        records.add(LedgerRecord.winningNumber(number, System.currentTimeMillis()));
+        for (int ticketId : winners) {
+            records.add(LedgerRecord.credit(ticketId, tickets.ownerOf(ticketId), PRIZE_CENTS));
+        }
+        if (!commitAll(records)) {
+            System.err.println("Draw " + number + " could not be committed; not settled");
+            return null;
+        }
+
+        for (int ticketId : winners) {
+            userById(tickets.ownerOf(ticketId)).credit(PRIZE_CENTS);
+        }
+        return winners;
+    }
+
+    /**
+     * Publish a PrizeCredited for each winning ticket's owner
+     */
+    private void publishPrizes(EventBus bus, int[] winners, int winningNumber, long timestamp) {
+        double prize = PRIZE_CENTS / 100.0; // Prize for winning ticket
+        for (int ticketId : winners) {
+            User owner = userById(tickets.ownerOf(ticketId));
+            if (owner != null) {
+                bus.publish(new PrizeCredited(owner.getUsername(), ticketId, winningNumber, prize, timestamp));
             }
         }
     }
@@ -0,0 +1,120 @@
+package server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execution mode shared by the TCP, HTTP and WebSocket front-ends.
+ *
+ * FIXED   - bounded pool of platform threads (the original behaviour)
+ * ELASTIC - cached pool that grows with the number of open connections
+ * VIRTUAL - one virtual thread per connection/request (Java 21+); falls back
+ *           to ELASTIC on older runtimes
+ *
+ * Selected with -Dlottery.execution.mode=fixed|elastic|virtual and
+ * -Dlottery.execution.poolSize=N (used by FIXED).
+ */
+public enum ExecutionMode {
+    FIXED,
+    ELASTIC,
+    VIRTUAL;
+
+    public static final String MODE_PROPERTY = "lottery.execution.mode";
+    public static final String POOL_SIZE_PROPERTY = "lottery.execution.poolSize";
+    public static final int DEFAULT_POOL_SIZE = 10;
+
+    // Upper bound for front-ends that need an explicit max (Grizzly worker pool)
+    private static final int ELASTIC_MAX_THREADS = 4096;
+
+    public static ExecutionMode fromSystemProperties() {
+        String value = System.getProperty(MODE_PROPERTY, "virtual").trim().toUpperCase();
+        try {
+            return valueOf(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown execution mode '" + value + "', using FIXED");
+            return FIXED;
+        }
+    }
+
+    public static int poolSizeFromSystemProperties() {
+        return Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Mode actually in effect on this JVM (VIRTUAL degrades to ELASTIC before Java 21).
+     */
+    public ExecutionMode effective() {
+        if (this == VIRTUAL && !virtualThreadsAvailable()) {
+            return ELASTIC;
+        }
+        return this;
+    }
+
+    public ExecutorService newExecutor(String name, int poolSize) {
+        switch (effective()) {
+            case FIXED:
+                return Executors.newFixedThreadPool(poolSize, platformThreadFactory(name));
+            case VIRTUAL:
+                return newVirtualThreadPerTaskExecutor(name);
+            case ELASTIC:
+            default:
+                return Executors.newCachedThreadPool(platformThreadFactory(name));
+        }
+    }
+
+    public ThreadFactory threadFactory(String name) {
+        if (effective() == VIRTUAL) {
+            return virtualThreadFactory(name);
+        }
+        return platformThreadFactory(name);
+    }
+
+    /**
+     * Max worker threads for front-ends that cannot take an ExecutorService directly.
+     */
+    public int maxThreads(int poolSize) {
+        return this == FIXED ? poolSize : Math.max(poolSize, ELASTIC_MAX_THREADS);
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ThreadFactory platformThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Reflection keeps the build on --release 11 while still using Loom when present
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads not available", e);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        try {
+            Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) perTask.invoke(null, virtualThreadFactory(name));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads not available", e);
+        }
+    }
+}
@@ -3,32 +3,58 @@ package server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import event.EventBus;
+import event.EventMetrics;
+import metrics.MetricsRegistry;
+import optional.EventLogWriter;
 import optional.HttpServerModule;
+import optional.LiveStatsTicker;
+import optional.NIOServer;
+import optional.WebSocketEventPublisher;
 import optional.WebSocketServer;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.tyrus.container.grizzly.server.GrizzlyServerContainer;
 import org.glassfish.tyrus.server.Server;
+import persistence.GroupCommitter;
+import persistence.Ledger;
+import persistence.SnapshotStore;
 
 public class LotteryServer {
     private ServerSocket serverSocket;
     private ExecutorService threadPool;
     private DataManager dataManager;
+    private Ledger ledger;
+    private GroupCommitter groupCommitter;
+    private SnapshotCompactor snapshotCompactor;
+    private ExecutionMode executionMode;
+    private int poolSize;
     private HttpServerModule httpServer;
+    private NIOServer nioServer;
     private Server webSocketServer;
+    private EventBus eventBus;
+    private EventLogWriter eventLog;
+    private final EventMetrics eventMetrics = new EventMetrics();
     private volatile boolean running;
 
     public void start(int port) throws IOException {
         serverSocket = new ServerSocket(port);
-        threadPool = Executors.newFixedThreadPool(10);
-        dataManager = new DataManager();
+        executionMode = ExecutionMode.fromSystemProperties();
+        poolSize = ExecutionMode.poolSizeFromSystemProperties();
+        threadPool = executionMode.newExecutor("tcp-client", poolSize);
+        dataManager = openDataManager();
+        dataManager.setEventBus(openEventBus());
 
         // Start HTTP server on port 8080 for web frontend
-        httpServer = new HttpServerModule(dataManager);
+        httpServer = new HttpServerModule(dataManager, executionMode, poolSize);
         httpServer.start(8080);
 
         // 🔴 Start WebSocket server on port 9090
         try {
-            webSocketServer = new Server("localhost", 9090, "/ws", null, WebSocketServer.class);
+            webSocketServer = new Server("localhost", 9090, "/ws", webSocketProperties(), WebSocketServer.class);
             webSocketServer.start();
             System.out.println("🌐 WebSocket Server started on ws://localhost:9090/ws/lottery-updates");
             System.out.println("✅ Real-time updates enabled for winning numbers, ticket counts, and notifications");
@@ -37,10 +63,21 @@ public class LotteryServer {
             e.printStackTrace();
         }
 
+        // Purchase broadcasts are conflated into ticks, -Dlottery.ws.tickHz (default 4)
+        LiveStatsTicker.start(Integer.getInteger(LiveStatsTicker.TICK_HZ_PROPERTY, LiveStatsTicker.DEFAULT_TICK_HZ));
+
+        // Optional non-blocking TCP front-end, e.g. -Dlottery.nio.port=5001
+        Integer nioPort = Integer.getInteger("lottery.nio.port");
+        if (nioPort != null) {
+            startNioServer(nioPort);
+        }
+
+        registerMetrics();
         running = true;
 
         System.out.println("Lottery Server started on port " + port);
         System.out.println("HTTP API Server started on port 8080");
+        System.out.println("Execution mode: " + executionMode.effective() + " (requested " + executionMode + ")");
         System.out.println("=====================================");
         System.out.println("  Lottery System Ready!");
         System.out.println("=====================================");
@@ -52,10 +89,111 @@ public class LotteryServer {
         }
     }
 
+    // Ledger directory via -Dlottery.ledger.dir (default data/ledger); an empty value runs memory-only
+    private DataManager openDataManager() throws IOException {
+        String dir = System.getProperty(Ledger.DIR_PROPERTY, Ledger.DEFAULT_DIR).trim();
+        if (dir.isEmpty()) {
+            System.out.println("Ledger disabled, state is memory-only");
+            return new DataManager();
+        }
+        ledger = Ledger.open(Paths.get(dir),
+                Integer.getInteger(Ledger.SEGMENT_RECORDS_PROPERTY, Ledger.DEFAULT_SEGMENT_RECORDS));
+        // Commit batching via -Dlottery.ledger.commitDelayMicros / -Dlottery.ledger.commitBatch
+        groupCommitter = GroupCommitter.fromSystemProperties(ledger);
+        SnapshotStore snapshots = new SnapshotStore(Paths.get(dir).resolve("snapshots"));
+        DataManager recovered = DataManager.recover(ledger, groupCommitter, snapshots);
+
+        // Background snapshots every -Dlottery.snapshot.intervalSeconds (0 disables)
+        long interval = Long.getLong(SnapshotStore.INTERVAL_PROPERTY, SnapshotStore.DEFAULT_INTERVAL_SECONDS);
+        if (interval > 0) {
+            snapshotCompactor = new SnapshotCompactor(ledger, snapshots);
+            snapshotCompactor.start(interval);
+        }
+        return recovered;
+    }
+
+    // Broadcasting, audit logging and metrics each run on their own bus thread,
+    // off the request path; queue size via -Dlottery.events.queueCapacity
+    private EventBus openEventBus() {
+        eventBus = EventBus.fromSystemProperties();
+        eventBus.subscribe("websocket", new WebSocketEventPublisher());
+        eventBus.subscribe("metrics", eventMetrics);
+        String logFile = System.getProperty(EventLogWriter.FILE_PROPERTY, EventLogWriter.DEFAULT_FILE).trim();
+        if (!logFile.isEmpty()) {
+            try {
+                eventLog = new EventLogWriter(logFile);
+                eventBus.subscribe("log", eventLog);
+            } catch (IOException e) {
+                System.err.println("⚠️ Event log disabled: " + e.getMessage());
+            }
+        }
+        return eventBus;
+    }
+
+    private void startNioServer(int nioPort) {
+        int reactors = Integer.getInteger("lottery.nio.reactors", Runtime.getRuntime().availableProcessors());
+        nioServer = new NIOServer(dataManager, reactors, NIOServer.Balancing.LEAST_LOADED, executionMode, poolSize);
+        Thread nioThread = new Thread(() -> {
+            try {
+                nioServer.start(nioPort);
+            } catch (IOException e) {
+                System.err.println("⚠️ NIO server stopped: " + e.getMessage());
+            }
+        }, "nio-server");
+        nioThread.setDaemon(true);
+        nioThread.start();
+    }
+
+    // Gauges read at scrape time by the HTTP /metrics route; latency histograms
+    // are registered by the front-ends themselves
+    private void registerMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String connections = "Open client connections, by front-end";
+        metrics.gauge("lottery_connections", connections, ClientHandler::getOpenConnections, "frontend", "tcp");
+        if (nioServer != null) {
+            metrics.gauge("lottery_connections", connections, nioServer::getActiveConnections, "frontend", "tcp-nio");
+        }
+        metrics.gauge("lottery_connections", connections, WebSocketServer::getConnectedClientsCount,
+                "frontend", "websocket");
+
+        String depth = "Items waiting in an outbound or delivery queue";
+        metrics.gauge("lottery_queue_depth", depth, WebSocketServer::getQueueDepth, "queue", "websocket-outbox");
+        metrics.gauge("lottery_queue_depth", depth, eventBus::getQueueDepth, "queue", "event-bus");
+        metrics.counter("lottery_event_bus_dropped_total", "Events dropped because a subscriber queue was full",
+                eventBus::getDroppedCount);
+        metrics.counter("lottery_ws_evictions_total", "WebSocket sessions evicted for falling behind",
+                WebSocketServer::getEvictionCount);
+
+        metrics.gauge("lottery_tickets", "Tickets sold", dataManager::getTicketCount);
+        metrics.gauge("lottery_users", "Registered users", dataManager::getUserCount);
+    }
+
+    // Grizzly only accepts a ThreadPoolConfig, so map the execution mode onto its worker pool
+    private Map<String, Object> webSocketProperties() {
+        ThreadPoolConfig workerConfig = ThreadPoolConfig.defaultConfig().copy()
+                .setPoolName("websocket-worker")
+                .setCorePoolSize(poolSize)
+                .setMaxPoolSize(executionMode.effective().maxThreads(poolSize))
+                .setThreadFactory(executionMode.threadFactory("websocket-worker"));
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(GrizzlyServerContainer.WORKER_THREAD_POOL_CONFIG, workerConfig);
+        return properties;
+    }
+
     public void stop() throws IOException {
         running = false;
         
+        // Deliver queued events before the ticker and WebSocket server go away
+        if (eventBus != null) {
+            eventBus.close();
+            System.out.println(eventBus.getStats());
+            System.out.println(eventMetrics);
+        }
+        if (eventLog != null) eventLog.close();
+        
         // Stop WebSocket server
+        LiveStatsTicker.stop();
         if (webSocketServer != null) {
             try {
                 WebSocketServer.closeAll();
@@ -67,8 +205,15 @@ public class LotteryServer {
         }
         
         if (httpServer != null) httpServer.stop();
+        if (nioServer != null) nioServer.stop();
         if (threadPool != null) threadPool.shutdown();
         if (serverSocket != null) serverSocket.close();
+        if (snapshotCompactor != null) snapshotCompactor.stop();
+        if (groupCommitter != null) {
+            groupCommitter.close();
+            System.out.println(groupCommitter.getStats());
+        }
+        if (ledger != null) ledger.close();
     }
 
     public static void main(String[] args) throws IOException {
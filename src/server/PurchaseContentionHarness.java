@@ -0,0 +1,123 @@
+package server;
+
+import model.TicketBatch;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contention check for the lock-free debit path: many threads buy tickets
+ * from one account until it runs dry, mixing single and bulk purchases.
+ *
+ * Verifies that the balance is never seen below zero, that every cent
+ * debited paid for a ticket that was sold (sold x price = debited), that the
+ * account's ticket list matches the sales, and that the account is drained
+ * down to less than one ticket. Prints the figures and exits with 1 on any
+ * violation.
+ *
+ * Usage: java server.PurchaseContentionHarness [threads] [balance] [rounds]
+ * (defaults 32 threads, 100000.00 balance, 5 rounds), memory-only.
+ */
+public class PurchaseContentionHarness {
+    private static final String USERNAME = "contended";
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        double balance = args.length > 1 ? Double.parseDouble(args[1]) : 100_000.0;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        boolean ok = true;
+        for (int round = 1; round <= rounds; round++) {
+            ok &= runRound(round, threads, balance);
+        }
+        System.out.println(ok ? "PASS" : "FAIL");
+        if (!ok) System.exit(1);
+    }
+
+    private static boolean runRound(int round, int threads, double balance) throws InterruptedException {
+        DataManager dataManager = new DataManager();
+        dataManager.loginUser(USERNAME, balance);
+        long initialCents = Math.round(balance * 100);
+
+        AtomicLong sold = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong lowestSeenCents = new AtomicLong(initialCents);
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        // Samples the balance while the buyers race, to catch a transient overdraft
+        Thread watcher = new Thread(() -> {
+            while (running.get()) {
+                long cents = Math.round(dataManager.getUserBalance(USERNAME) * 100);
+                lowestSeenCents.accumulateAndGet(cents, Math::min);
+                Thread.onSpinWait();
+            }
+        }, "balance-watcher");
+        watcher.start();
+
+        for (int t = 0; t < threads; t++) {
+            Thread buyer = new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    // Keep going until a few purchases in a row bounce off an empty account
+                    int misses = 0;
+                    while (misses < 3) {
+                        int bought = 0;
+                        if (random.nextBoolean()) {
+                            bought = dataManager.purchaseTicket(USERNAME) != null ? 1 : 0;
+                        } else {
+                            TicketBatch batch = dataManager.buyTickets(USERNAME, 1 + random.nextInt(5));
+                            bought = batch != null ? batch.getCount() : 0;
+                        }
+                        if (bought > 0) {
+                            sold.addAndGet(bought);
+                            misses = 0;
+                        } else {
+                            rejected.incrementAndGet();
+                            misses++;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "buyer-" + t);
+            buyer.start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - began;
+        running.set(false);
+        watcher.join();
+
+        long finalCents = Math.round(dataManager.getUserBalance(USERNAME) * 100);
+        long debitedCents = initialCents - finalCents;
+        long soldCents = sold.get() * DataManager.TICKET_PRICE_CENTS;
+        int ticketsOnAccount = dataManager.getUserTicketCount(USERNAME);
+
+        boolean ok = true;
+        ok &= check(lowestSeenCents.get() >= 0 && finalCents >= 0, "balance went negative");
+        ok &= check(soldCents == debitedCents, "sold x price != debited");
+        ok &= check(ticketsOnAccount == sold.get(), "account ticket count != tickets sold");
+        ok &= check(dataManager.getTicketCount() == sold.get(), "store ticket count != tickets sold");
+        ok &= check(finalCents < DataManager.TICKET_PRICE_CENTS, "account not drained");
+
+        System.out.printf("round %d: %d threads, sold %d tickets (%.2f) in %.1f ms, debited %.2f, "
+                        + "%d rejected, final balance %.2f, lowest seen %.2f%n",
+                round, threads, sold.get(), soldCents / 100.0, elapsedNanos / 1e6, debitedCents / 100.0,
+                rejected.get(), finalCents / 100.0, lowestSeenCents.get() / 100.0);
+        return ok;
+    }
+
+    private static boolean check(boolean condition, String violation) {
+        if (!condition) System.out.println("  VIOLATION: " + violation);
+        return condition;
+    }
+}
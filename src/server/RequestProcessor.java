@@ -0,0 +1,98 @@
+package server;
+
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import model.Ticket;
+import model.TicketBatch;
+import protocol.Action;
+import protocol.Request;
+import protocol.Response;
+
+/**
+ * Maps protocol requests onto DataManager operations.
+ * Shared by the blocking ClientHandler and the non-blocking NIOServer so both
+ * TCP front-ends answer the line-delimited JSON protocol identically.
+ */
+public class RequestProcessor {
+    // Per-action latency, indexed by Action ordinal; shared by every front-end instance
+    private static final LatencyHistogram[] LATENCY = new LatencyHistogram[Action.values().length];
+
+    static {
+        for (Action action : Action.values()) {
+            LATENCY[action.ordinal()] = MetricsRegistry.getDefault().histogram("lottery_tcp_request_seconds",
+                    "Time to process one TCP protocol request, by action", "action", action.getWireName());
+        }
+    }
+
+    private final DataManager dataManager;
+
+    public RequestProcessor(DataManager dataManager) {
+        this.dataManager = dataManager;
+    }
+
+    public Response process(Request request) {
+        long start = System.nanoTime();
+        try {
+            return dispatch(request);
+        } finally {
+            LATENCY[request.getActionType().ordinal()].recordSince(start);
+        }
+    }
+
+    private Response dispatch(Request request) {
+        switch (request.getActionType()) {
+            case LOGIN:
+                if (!dataManager.loginUser(request.getUsername(), 100.0)) {
+                    return new Response("error", "Login failed");
+                }
+                Response loginResp = new Response("success", "Login successful");
+                loginResp.setBalance(100.0);
+                return loginResp;
+            case BUY_TICKET:
+                Ticket ticket = dataManager.purchaseTicket(request.getUsername());
+                if (ticket != null) {
+                    Response buyResp = new Response("success", "Ticket purchased successfully");
+                    buyResp.setTicketNumbers(ticket.getNumbers());
+                    buyResp.setTicketId(ticket.getTicketId());
+                    buyResp.setBalance(dataManager.getUserBalance(request.getUsername()));
+                    return buyResp;
+                } else {
+                    return new Response("error", "Insufficient balance");
+                }
+            case BUY_TICKETS:
+                TicketBatch batch = dataManager.buyTickets(request.getUsername(), request.getCount());
+                if (batch != null) {
+                    Response bulkResp = new Response("success", batch.getCount() + " tickets purchased successfully");
+                    bulkResp.setTicketId(batch.getFirstTicketId());
+                    bulkResp.setTicketCount(batch.getCount());
+                    bulkResp.setTicketNumberSets(batch.getNumbers());
+                    bulkResp.setBalance(dataManager.getUserBalance(request.getUsername()));
+                    return bulkResp;
+                } else {
+                    return new Response("error", "Invalid ticket count or insufficient balance");
+                }
+            case CHECK_RESULT:
+                boolean won = dataManager.checkResult(request.getUsername());
+                if (won) {
+                    return new Response("success", "Congratulations! You won!");
+                } else {
+                    return new Response("success", "Better luck next time");
+                }
+            case ADMIN_LOGIN:
+                return new Response("success", "Admin authenticated");
+            case SET_WINNING_NUMBER:
+                if (!dataManager.setWinningNumber(request.getWinningNumber())) {
+                    return new Response("error", "Winning number could not be recorded");
+                }
+                return new Response("success", "Winning number set");
+            case VIEW_TICKETS:
+                // For simplicity, return a basic response; full list via JSON
+                return new Response("success", "Tickets retrieved");
+            case ANNOUNCE_RESULTS:
+                dataManager.announceResults();
+                return new Response("success", "Results announced");
+            default:
+                return new Response("error", "Unknown action");
+        }
+    }
+}
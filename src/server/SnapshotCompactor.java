@@ -0,0 +1,97 @@
+package server;
+
+import persistence.Ledger;
+import persistence.SnapshotStore;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic background snapshots. Each run seals the active ledger segment,
+ * rebuilds state in a replica from the previous snapshot plus the newly
+ * sealed segments, and writes that out. The live DataManager is never read
+ * or locked, so sales continue untouched while a snapshot is taken.
+ *
+ * The previous snapshot and the segments after it are kept until the next
+ * run, so a corrupt newest snapshot still leaves a full recovery path.
+ */
+class SnapshotCompactor {
+    private final Ledger ledger;
+    private final SnapshotStore snapshots;
+    private final ScheduledExecutorService scheduler;
+    private long lastSnapshotSequence = -1;
+
+    SnapshotCompactor(Ledger ledger, SnapshotStore snapshots) {
+        this.ledger = ledger;
+        this.snapshots = snapshots;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void start(long intervalSeconds) {
+        scheduler.scheduleWithFixedDelay(this::runSafely, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void runSafely() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Take one snapshot now. Returns false if nothing changed since the last one.
+     */
+    synchronized boolean snapshot() throws IOException {
+        if (ledger.getLastSequence() == lastSnapshotSequence) return false;
+        long start = System.nanoTime();
+        long sealed = ledger.rollSegment();
+
+        // Start from the newest readable snapshot, as recovery does; a bad one is
+        // set aside and the older generation (whose segments are kept) used instead
+        DataManager loaded = DataManager.replica();
+        long previousSegment = -1;
+        long[] lastSequence = {0};
+        for (SnapshotStore.Snapshot previous : snapshots.list()) {
+            DataManager candidate = DataManager.replica();
+            try {
+                lastSequence[0] = candidate.loadSnapshot(snapshots, previous);
+            } catch (IOException | RuntimeException e) {
+                DataManager.quarantine(snapshots, previous, e);
+                continue;
+            }
+            loaded = candidate;
+            previousSegment = previous.getLastSegment();
+            break;
+        }
+        DataManager replica = loaded;
+        long[] applied = {0};
+        ledger.readSealed(previousSegment, sealed, record -> {
+            if (record.getSequence() <= lastSequence[0]) return;
+            replica.replay(record);
+            lastSequence[0] = record.getSequence();
+            applied[0]++;
+        });
+
+        snapshots.write(lastSequence[0], sealed, replica::writeSnapshot);
+        // Keep one older generation as a fallback; anything before it can go
+        if (previousSegment >= 0) {
+            snapshots.deleteOlderThan(previousSegment);
+            ledger.removeSegmentsThrough(previousSegment);
+        }
+        lastSnapshotSequence = lastSequence[0];
+        System.out.printf("Snapshot through segment %d (sequence %d, %d new records) written in %.1f ms%n",
+                sealed, lastSequence[0], applied[0], (System.nanoTime() - start) / 1e6);
+        return true;
+    }
+}
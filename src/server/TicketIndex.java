@@ -0,0 +1,83 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Inverted index from drawn number to the ids of tickets containing it, so a
+ * draw only touches matching tickets instead of scanning every ticket.
+ * Appends are lock-free; a ticket holding the same number twice is listed once.
+ */
+class TicketIndex {
+    private final PostingList[] postings;
+
+    TicketIndex(int maxNumber) {
+        postings = new PostingList[maxNumber + 1];
+        for (int i = 1; i <= maxNumber; i++) {
+            postings[i] = new PostingList();
+        }
+    }
+
+    void add(int ticketId, int[] numbers) {
+        for (int i = 0; i < numbers.length; i++) {
+            int number = numbers[i];
+            if (number < 1 || number >= postings.length || seenBefore(numbers, i)) continue;
+            postings[number].add(ticketId);
+        }
+    }
+
+    /**
+     * Visit every ticket id containing number, in insertion order.
+     */
+    void forEachTicket(int number, IntConsumer action) {
+        if (number < 1 || number >= postings.length) return;
+        postings[number].forEach(action);
+    }
+
+    private static boolean seenBefore(int[] numbers, int index) {
+        for (int i = 0; i < index; i++) {
+            if (numbers[i] == numbers[index]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Append-only list of ticket ids stored in fixed-size chunks. Writers reserve a
+     * slot with one getAndIncrement; 0 marks a slot whose writer has not finished
+     * (ticket ids start at 1000, so 0 is never a real id).
+     */
+    private static class PostingList {
+        private static final int CHUNK_BITS = 14;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int MAX_CHUNKS = 1 << 14;
+
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicReferenceArray<AtomicIntegerArray> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+        void add(int ticketId) {
+            int slot = size.getAndIncrement();
+            chunk(slot >>> CHUNK_BITS).set(slot & (CHUNK_SIZE - 1), ticketId);
+        }
+
+        void forEach(IntConsumer action) {
+            int end = size.get();
+            for (int slot = 0; slot < end; slot++) {
+                AtomicIntegerArray chunk = chunks.get(slot >>> CHUNK_BITS);
+                if (chunk == null) continue;
+                int ticketId = chunk.get(slot & (CHUNK_SIZE - 1));
+                if (ticketId != 0) action.accept(ticketId);
+            }
+        }
+
+        private AtomicIntegerArray chunk(int index) {
+            AtomicIntegerArray chunk = chunks.get(index);
+            if (chunk == null) {
+                chunks.compareAndSet(index, null, new AtomicIntegerArray(CHUNK_SIZE));
+                chunk = chunks.get(index);
+            }
+            return chunk;
+        }
+    }
+}
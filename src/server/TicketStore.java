@@ -0,0 +1,129 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Chunked columnar ticket storage. Ticket ids are handed out sequentially by
+ * DataManager, so (ticketId - firstTicketId) indexes the columns directly:
+ * numbers are packed one byte each, owners are int user ids and purchase
+ * times sit in a long[] - about 17 bytes per ticket with no per-ticket objects.
+ *
+ * A slot is published by writing its owner last (volatile); readers check the
+ * owner first, so they never see half-written numbers.
+ */
+class TicketStore {
+    static final int NUMBERS_PER_TICKET = 5;
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 16;
+    private static final int NO_OWNER = 0;
+
+    private final int firstTicketId;
+    private final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger size = new AtomicInteger();
+
+    TicketStore(int firstTicketId) {
+        this.firstTicketId = firstTicketId;
+    }
+
+    /**
+     * Store a ticket. Each id is written exactly once by the thread that allocated it.
+     */
+    void put(int ticketId, int ownerId, int[] numbers, long purchaseTime) {
+        int slot = slot(ticketId);
+        Chunk chunk = chunkForWrite(slot >>> CHUNK_BITS);
+        int offset = slot & (CHUNK_SIZE - 1);
+        int base = offset * NUMBERS_PER_TICKET;
+        for (int i = 0; i < NUMBERS_PER_TICKET; i++) {
+            chunk.numbers[base + i] = (byte) numbers[i];
+        }
+        chunk.purchaseTimes[offset] = purchaseTime;
+        chunk.owners.set(offset, ownerId + 1); // publishes the slot
+        size.incrementAndGet();
+    }
+
+    boolean contains(int ticketId) {
+        return ownerOf(ticketId) >= 0;
+    }
+
+    /**
+     * Owner user id, or -1 if the ticket does not exist (yet).
+     */
+    int ownerOf(int ticketId) {
+        Chunk chunk = chunkForRead(ticketId);
+        if (chunk == null) return -1;
+        return chunk.owners.get(slot(ticketId) & (CHUNK_SIZE - 1)) - 1;
+    }
+
+    /**
+     * Copy a ticket's numbers into dst; false if the ticket does not exist.
+     */
+    boolean readNumbers(int ticketId, int[] dst) {
+        Chunk chunk = chunkForRead(ticketId);
+        if (chunk == null) return false;
+        int offset = slot(ticketId) & (CHUNK_SIZE - 1);
+        if (chunk.owners.get(offset) == NO_OWNER) return false;
+        int base = offset * NUMBERS_PER_TICKET;
+        for (int i = 0; i < NUMBERS_PER_TICKET; i++) {
+            dst[i] = chunk.numbers[base + i];
+        }
+        return true;
+    }
+
+    int firstNumber(int ticketId) {
+        Chunk chunk = chunkForRead(ticketId);
+        if (chunk == null) return 0;
+        int offset = slot(ticketId) & (CHUNK_SIZE - 1);
+        if (chunk.owners.get(offset) == NO_OWNER) return 0;
+        return chunk.numbers[offset * NUMBERS_PER_TICKET];
+    }
+
+    long purchaseTime(int ticketId) {
+        Chunk chunk = chunkForRead(ticketId);
+        if (chunk == null) return 0L;
+        int offset = slot(ticketId) & (CHUNK_SIZE - 1);
+        if (chunk.owners.get(offset) == NO_OWNER) return 0L;
+        return chunk.purchaseTimes[offset];
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    int getFirstTicketId() {
+        return firstTicketId;
+    }
+
+    private int slot(int ticketId) {
+        int slot = ticketId - firstTicketId;
+        if (slot < 0 || slot >= MAX_CHUNKS * CHUNK_SIZE) {
+            throw new IllegalArgumentException("Ticket id out of range: " + ticketId);
+        }
+        return slot;
+    }
+
+    private Chunk chunkForRead(int ticketId) {
+        int slot = ticketId - firstTicketId;
+        if (slot < 0 || slot >= MAX_CHUNKS * CHUNK_SIZE) return null;
+        return chunks.get(slot >>> CHUNK_BITS);
+    }
+
+    private Chunk chunkForWrite(int index) {
+        Chunk chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new Chunk());
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    private static class Chunk {
+        final byte[] numbers = new byte[CHUNK_SIZE * NUMBERS_PER_TICKET];
+        final long[] purchaseTimes = new long[CHUNK_SIZE];
+        // ownerId + 1, so 0 means the slot has not been published
+        final AtomicIntegerArray owners = new AtomicIntegerArray(CHUNK_SIZE);
+    }
+}